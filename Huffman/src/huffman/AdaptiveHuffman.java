@@ -0,0 +1,203 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class is a one pass (adaptive) huffman coder using the FGK algorithm.
+ * The encoder and decoder start from the same empty tree and update it the
+ * same way after every character, so no frequencies are counted ahead of
+ * time and no table is stored. That lets it compress input which can only
+ * be read once, like stdin or a socket.
+ *
+ * A character seen for the first time is sent as the code of the NYT (not
+ * yet transmitted) leaf followed by the character in 9 bits. The end of the
+ * input is the 9 bit value 256 sent the same way.
+ *
+ * Compiling and executing:
+ * 1. javac -d bin src/huffman/*.java
+ * 2. java -cp bin huffman.AdaptiveHuffman encode, with the input piped to
+ *    stdin and the encoding written to stdout
+ * 3. java -cp bin huffman.AdaptiveHuffman decode, the same way
+ */
+public class AdaptiveHuffman {
+    private static final int END = 256;
+    private static final int SYMBOLS = 257;
+    private static final int RAW_BITS = 9;
+
+    // Every symbol and the NYT leaf, plus one fewer internal nodes
+    private static final int NODES = 2 * (SYMBOLS + 1) - 1;
+    private static final int ROOT = NODES - 1;
+
+    private static final int CHUNK_SIZE = 1 << 13;
+
+    // Nodes are numbered by index. Weights never decrease as the index goes
+    // up and siblings are next to each other (the sibling property), and
+    // the root is the highest index.
+    private int[] weight = new int[NODES];
+    private int[] parent = new int[NODES];
+    private int[] left = new int[NODES];
+    private int[] right = new int[NODES];
+    private int[] symbol = new int[NODES];
+
+    // The leaf of each symbol, or -1 if it has not been seen yet
+    private int[] leaf = new int[SYMBOLS];
+    private int nyt = ROOT;
+
+    // Reused for the path from a leaf up to the root
+    private int[] path = new int[NODES];
+
+    private AdaptiveHuffman() {
+        Arrays.fill(leaf, -1);
+        Arrays.fill(left, -1);
+        Arrays.fill(right, -1);
+        Arrays.fill(symbol, -1);
+        parent[ROOT] = -1;
+    }
+
+    /**
+     * Encodes in until it ends. Whatever has been read so far is written to
+     * out each time a read from in returns, so latency stays bounded.
+     *
+     * @param in  The characters to encode
+     * @param out The stream to write the encoding to
+     */
+    public static void encode(InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffman model = new AdaptiveHuffman();
+        BitOutputStream bits = new BitOutputStream(out);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                model.write(bits, chunk[i] & 0xFF);
+            }
+            bits.flushBytes();
+        }
+        model.write(bits, END);
+        bits.flush();
+    }
+
+    /**
+     * Decodes a stream written by encode until its end symbol. Whatever has
+     * been decoded is flushed to out before waiting for more of in, so
+     * latency stays bounded here too.
+     *
+     * @param in  The encoding
+     * @param out The stream to write the characters to
+     */
+    public static void decode(InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffman model = new AdaptiveHuffman();
+        // The bit reader only reads from in when it needs more bits, so a
+        // read with nothing available is about to block
+        InputStream flushing = new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (in.available() == 0) out.flush();
+                return in.read(b, off, len);
+            }
+        };
+        BitInputStream bits = new BitInputStream(flushing);
+        while (true) {
+            int c = model.read(bits);
+            if (c == END) break;
+            out.write(c);
+        }
+        out.flush();
+    }
+
+    private void write(BitOutputStream out, int c) throws IOException {
+        boolean seen = leaf[c] != -1;
+        writePath(out, seen ? leaf[c] : nyt);
+        if (!seen) out.writeBits(c, RAW_BITS);
+        update(c);
+    }
+
+    private int read(BitInputStream in) throws IOException {
+        int node = ROOT;
+        while (left[node] != -1) {
+            int bit = in.readBit();
+            if (bit < 0) throw new IOException("Encoding ended before its end symbol");
+            node = bit == 0 ? left[node] : right[node];
+        }
+        int c = node == nyt ? in.readBits(RAW_BITS) : symbol[node];
+        if (c > END) throw new IOException("Invalid character in encoding");
+        update(c);
+        return c;
+    }
+
+    // Writes the code of node, which is its path down from the root
+    private void writePath(BitOutputStream out, int node) throws IOException {
+        int length = 0;
+        for (; node != ROOT; node = parent[node]) {
+            path[length++] = left[parent[node]] == node ? 0 : 1;
+        }
+        while (length > 0) out.writeBits(path[--length], 1);
+    }
+
+    private void update(int c) {
+        int node;
+        if (leaf[c] == -1) {
+            // The NYT leaf gets two children: a new NYT and the new symbol
+            int oldNyt = nyt;
+            int newLeaf = oldNyt - 1;
+            nyt = oldNyt - 2;
+
+            left[oldNyt] = nyt;
+            right[oldNyt] = newLeaf;
+            symbol[oldNyt] = -1;
+            parent[nyt] = oldNyt;
+            parent[newLeaf] = oldNyt;
+            symbol[newLeaf] = c;
+            leaf[c] = newLeaf;
+            node = newLeaf;
+        } else {
+            node = leaf[c];
+        }
+
+        while (node != -1) {
+            // Swap with the highest numbered node of the same weight, unless
+            // that is the parent, so the sibling property still holds after
+            // the increment
+            int leader = node;
+            while (leader < ROOT && weight[leader + 1] == weight[node]) leader++;
+            if (leader == parent[node]) leader--;
+            if (leader != node) swap(node, leader);
+            weight[leader]++;
+            node = parent[leader];
+        }
+    }
+
+    // Swaps the subtrees at a and b, which keep their parents' slots
+    private void swap(int a, int b) {
+        int temp = weight[a]; weight[a] = weight[b]; weight[b] = temp;
+        temp = left[a]; left[a] = left[b]; left[b] = temp;
+        temp = right[a]; right[a] = right[b]; right[b] = temp;
+        temp = symbol[a]; symbol[a] = symbol[b]; symbol[b] = temp;
+        relink(a);
+        relink(b);
+    }
+
+    private void relink(int node) {
+        if (left[node] != -1) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        } else if (symbol[node] != -1) {
+            leaf[symbol[node]] = node;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 || !(args[0].equals("encode") || args[0].equals("decode"))) {
+            System.err.println("Usage: java huffman.AdaptiveHuffman encode|decode < input > output");
+            return;
+        }
+        OutputStream out = new BufferedOutputStream(System.out);
+        if (args[0].equals("encode")) encode(System.in, out);
+        else decode(System.in, out);
+        out.flush();
+    }
+}
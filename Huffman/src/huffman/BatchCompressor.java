@@ -0,0 +1,219 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class compresses or decompresses every file of a directory which
+ * matches a glob, several files at once, with HuffmanCoding.compress and
+ * HuffmanCoding.decompress. Each file runs on its own virtual thread when
+ * the JVM has them, otherwise on a pool with a thread per processor, and a
+ * semaphore bounds how many files are in flight either way.
+ *
+ * Compiling and executing:
+ * 1. javac -d bin src/huffman/*.java
+ * 2. java -cp bin huffman.BatchCompressor compress|decompress directory glob outputDirectory
+ */
+public class BatchCompressor {
+    public static final String SUFFIX = ".huf";
+    public static final int DEFAULT_IN_FLIGHT = 16;
+
+    private int maxInFlight;
+
+    /**
+     * The outcome of one file
+     */
+    public static class Result {
+        private Path input;
+        private Path output;
+        private long bytesIn;
+        private long bytesOut;
+        private long millis;
+        private String error;
+
+        public Path getInput() { return input; }
+        public Path getOutput() { return output; }
+        public long getBytesIn() { return bytesIn; }
+        public long getBytesOut() { return bytesOut; }
+        public long getMillis() { return millis; }
+
+        /**
+         * @return Why the file failed, or null if it succeeded
+         */
+        public String getError() { return error; }
+    }
+
+    public BatchCompressor() {
+        this(DEFAULT_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxInFlight The most files being coded at once
+     */
+    public BatchCompressor(int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Files in flight must be positive");
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Compresses every matching file of directory into outputDirectory,
+     * adding SUFFIX to its name
+     *
+     * @param directory       The directory to look in, not recursively
+     * @param glob            Which file names to compress, e.g. "*.txt"
+     * @param outputDirectory Where to write the compressed files
+     * @return The result of each file, in the order of the file names
+     */
+    public List<Result> compressAll(Path directory, String glob, Path outputDirectory) throws IOException {
+        return run(directory, glob, outputDirectory, true);
+    }
+
+    /**
+     * Decompresses every matching file of directory into outputDirectory,
+     * removing SUFFIX from its name if it has it
+     *
+     * @param directory       The directory to look in, not recursively
+     * @param glob            Which file names to decompress, e.g. "*.huf"
+     * @param outputDirectory Where to write the decompressed files
+     * @return The result of each file, in the order of the file names
+     */
+    public List<Result> decompressAll(Path directory, String glob, Path outputDirectory) throws IOException {
+        return run(directory, glob, outputDirectory, false);
+    }
+
+    private List<Result> run(Path directory, String glob, Path outputDirectory, boolean compress)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) files.add(file);
+            }
+        }
+        files.sort(null);
+        Files.createDirectories(outputDirectory);
+
+        ExecutorService executor = newExecutor();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                // Wait here rather than queue, so only maxInFlight files are
+                // open and buffered at a time
+                inFlight.acquire();
+                Path output = outputDirectory.resolve(outputName(file.getFileName().toString(), compress));
+                futures.add(executor.submit(task(file, output, compress, inFlight)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) results.add(future.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while coding files", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while coding a file", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Callable<Result> task(Path input, Path output, boolean compress, Semaphore inFlight) {
+        return () -> {
+            Result result = new Result();
+            result.input = input;
+            result.output = output;
+            long start = System.nanoTime();
+            try {
+                result.bytesIn = Files.size(input);
+                Files.deleteIfExists(output);
+                if (compress) {
+                    HuffmanCoding coding = new HuffmanCoding(input.toString());
+                    coding.makeSortedList();
+                    coding.makeTree();
+                    coding.writeCompressed(output.toString(), 0);
+                } else {
+                    HuffmanCoding.readCompressed(input.toString(), output.toString());
+                }
+                result.bytesOut = Files.size(output);
+            } catch (IOException | RuntimeException e) {
+                result.error = e.toString();
+                // Don't leave a partly written file that looks like a result
+                try {
+                    Files.deleteIfExists(output);
+                } catch (IOException ignored) {
+                }
+            } finally {
+                result.millis = (System.nanoTime() - start) / 1000000;
+                inFlight.release();
+            }
+            return result;
+        };
+    }
+
+    private static String outputName(String name, boolean compress) {
+        if (compress) return name + SUFFIX;
+        if (name.endsWith(SUFFIX) && name.length() > SUFFIX.length()) {
+            return name.substring(0, name.length() - SUFFIX.length());
+        }
+        return name + ".out";
+    }
+
+    // Virtual threads are looked up by name, so this still compiles and
+    // runs on JVMs which do not have them
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * Writes a line per file with its sizes and time, then the totals
+     *
+     * @param results The results of compressAll or decompressAll
+     * @param out     Where to write the summary
+     */
+    public static void writeSummary(List<Result> results, PrintStream out) {
+        long totalIn = 0, totalOut = 0, totalMillis = 0;
+        int failed = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                out.printf("%s FAILED: %s%n", result.input, result.error);
+                failed++;
+                continue;
+            }
+            out.printf("%s: %d -> %d bytes in %d ms%n", result.input, result.bytesIn, result.bytesOut, result.millis);
+            totalIn += result.bytesIn;
+            totalOut += result.bytesOut;
+            totalMillis += result.millis;
+        }
+        out.printf("%d files, %d failed: %d -> %d bytes, %d ms of file time%n", results.size(), failed, totalIn,
+                totalOut, totalMillis);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4 || !(args[0].equals("compress") || args[0].equals("decompress"))) {
+            System.err.println("Usage: java huffman.BatchCompressor compress|decompress directory glob outputDirectory");
+            return;
+        }
+        BatchCompressor batch = new BatchCompressor();
+        long start = System.nanoTime();
+        List<Result> results = args[0].equals("compress")
+                ? batch.compressAll(Paths.get(args[1]), args[2], Paths.get(args[3]))
+                : batch.decompressAll(Paths.get(args[1]), args[2], Paths.get(args[3]));
+        writeSummary(results, System.out);
+        System.out.printf("%d ms in total%n", (System.nanoTime() - start) / 1000000);
+    }
+}
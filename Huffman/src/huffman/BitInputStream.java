@@ -0,0 +1,207 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class reads bits, most significant bit first, from a stream through
+ * a fixed size byte buffer, or from a ByteBuffer such as a mapped file.
+ * Bits are served from a 64 bit register, so peeking at the next few bits
+ * does not allocate and memory use does not depend on the input size.
+ */
+public class BitInputStream implements AutoCloseable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    // Reads eight bytes of the buffer at once, first byte highest
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    private InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    // Used instead of in and buffer when reading from a ByteBuffer
+    private ByteBuffer source;
+
+    // The low bitCount bits are the next bits of input, oldest highest
+    private long bitBuffer;
+    private int bitCount;
+    private boolean ended;
+
+    public BitInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BitInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads the remaining bytes of source, without copying them
+     *
+     * @param source The bytes to read, from its position to its limit
+     */
+    public BitInputStream(ByteBuffer source) {
+        this.source = source;
+    }
+
+    /**
+     * Skips the padding written by HuffmanCoding.writeBitString: up to 7
+     * zeroes and then the 1 which ends them
+     */
+    public void skipPadding() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            int bit = readBit();
+            if (bit != 0) return;
+        }
+    }
+
+    /**
+     * @param count The number of bits wanted, at most 57
+     * @return Whether there are at least count more bits of input
+     */
+    public boolean hasBits(int count) throws IOException {
+        if (bitCount < count) refill(count);
+        return bitCount >= count;
+    }
+
+    /**
+     * Returns the next count bits without consuming them. Past the end of
+     * the input the missing bits read as zeroes.
+     *
+     * @param count The number of bits, at most 32
+     * @return The bits, right aligned
+     */
+    public int peekBits(int count) throws IOException {
+        if (bitCount < count) {
+            refill(count);
+            if (bitCount < count) {
+                return (int) (bitBuffer << (count - bitCount)) & (int) ((1L << count) - 1);
+            }
+        }
+        return (int) (bitBuffer >>> (bitCount - count)) & (int) ((1L << count) - 1);
+    }
+
+    /**
+     * Consumes count bits, which have to be available
+     *
+     * @param count The number of bits, at most 57
+     */
+    public void skipBits(int count) throws IOException {
+        if (bitCount < count) {
+            refill(count);
+            if (bitCount < count) throw new IOException("Not enough bits left");
+        }
+        bitCount -= count;
+    }
+
+    /**
+     * @return The next bit, or -1 at the end of the input
+     */
+    public int readBit() throws IOException {
+        if (bitCount == 0) {
+            refill(1);
+            if (bitCount == 0) return -1;
+        }
+        bitCount--;
+        return (int) (bitBuffer >>> bitCount) & 1;
+    }
+
+    /**
+     * @param count The number of bits, at most 32, which have to be available
+     * @return The next count bits, right aligned
+     */
+    public int readBits(int count) throws IOException {
+        int bits = peekBits(count);
+        skipBits(count);
+        return bits;
+    }
+
+    /**
+     * Fills the register as far as it goes without blocking once count bits
+     * are there, for decoders which work on a copy of the register and hand
+     * back what they used through consume
+     *
+     * @param count The number of bits wanted, at most 57
+     * @return The number of bits in the register, the low ones of register()
+     */
+    int fill(int count) throws IOException {
+        if (bitCount <= 56) refill(count);
+        return bitCount;
+    }
+
+    /**
+     * @return The register, whose low fill() bits are the next bits of
+     *         input, oldest highest. The bits above those are not cleared.
+     */
+    long register() {
+        return bitBuffer;
+    }
+
+    /**
+     * Consumes count bits of the register, after fill returned at least that
+     * many
+     *
+     * @param count The number of bits used
+     */
+    void consume(int count) {
+        bitCount -= count;
+    }
+
+    public void close() throws IOException {
+        if (in != null) in.close();
+    }
+
+    // Fills the register with whole bytes until it holds more than 56 bits
+    // or the input ends. Once needed bits are there it stops rather than
+    // block on the stream, so live input is decoded as soon as it arrives.
+    private void refill(int needed) throws IOException {
+        // Up to seven bytes in one load while at least eight are left, then
+        // one at a time for the rest
+        if (bitCount <= 48) {
+            int take = (63 - bitCount) >>> 3;
+            if (source != null && source.remaining() >= 8) {
+                long word = source.getLong(source.position());
+                if (source.order() != ByteOrder.BIG_ENDIAN) word = Long.reverseBytes(word);
+                source.position(source.position() + take);
+                bitBuffer = (bitBuffer << (take << 3)) | (word >>> (64 - (take << 3)));
+                bitCount += take << 3;
+            } else if (source == null && limit - position >= 8) {
+                long word = (long) LONG_VIEW.get(buffer, position);
+                position += take;
+                bitBuffer = (bitBuffer << (take << 3)) | (word >>> (64 - (take << 3)));
+                bitCount += take << 3;
+            }
+        }
+        while (bitCount <= 56 && !ended) {
+            int b;
+            if (source != null) {
+                if (!source.hasRemaining()) {
+                    ended = true;
+                    return;
+                }
+                b = source.get() & 0xFF;
+            } else {
+                if (position == limit) {
+                    if (bitCount >= needed) return;
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        ended = true;
+                        return;
+                    }
+                }
+                b = buffer[position++] & 0xFF;
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * This class packs bits into bytes, most significant bit first, and writes
+ * them to an underlying stream through a fixed size byte buffer. Memory use
+ * does not depend on how many bits are written.
+ */
+public class BitOutputStream {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    // Stores four bytes of the buffer at once, most significant first
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    private OutputStream out;
+    private byte[] buffer;
+    private int position;
+
+    // Holds fewer than 8 bits which have not been written to the buffer yet
+    private long bitBuffer;
+    private int bitCount;
+
+    private long bitsWritten;
+
+    public BitOutputStream(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BitOutputStream(OutputStream out, int bufferSize) {
+        this.out = out;
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Writes a single bit
+     *
+     * @param bit 0 or 1
+     */
+    public void writeBit(int bit) throws IOException {
+        writeBits(bit & 1, 1);
+    }
+
+    /**
+     * Writes the lowest length bits of code, highest of those bits first
+     *
+     * @param code   The bits to write, right aligned
+     * @param length The number of bits to write, between 0 and 64
+     */
+    public void writeBits(long code, int length) throws IOException {
+        // At most 7 bits are pending, so 56 more always fit in the register
+        if (length > 56) {
+            writeBits(code >>> 32, length - 32);
+            length = 32;
+        }
+        if (length < 64) code &= (1L << length) - 1;
+        bitBuffer = (bitBuffer << length) | code;
+        bitCount += length;
+        bitsWritten += length;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            if (position == buffer.length) flushBuffer();
+            buffer[position++] = (byte) (bitBuffer >>> bitCount);
+        }
+    }
+
+    /**
+     * Writes the code of every byte in symbols[off, off + len), the same as
+     * calling writeBits for each one. While every code is at most 32 bits,
+     * the codes are gathered in a local 64 bit register and stored to the
+     * buffer 32 bits at a time, instead of one byte at a time with the
+     * fields updated after every code. Longer codes take the writeBits path.
+     * The time goes into the register, not the table lookups: looking codes
+     * up a vector at a time with jdk.incubator.vector and packing them in
+     * pairs was no faster.
+     *
+     * @param symbols The bytes to encode
+     * @param off     The first byte to encode
+     * @param len     The number of bytes to encode
+     * @param codes   Array where index i is the code of byte i, right aligned
+     * @param lengths Array where index i is the code length of byte i
+     */
+    public void writeCodes(byte[] symbols, int off, int len, long[] codes, int[] lengths) throws IOException {
+        int maxLength = 0;
+        for (int length : lengths) maxLength = Math.max(maxLength, length);
+        if (maxLength > 32 || buffer.length < 4) {
+            for (int i = off; i < off + len; i++) {
+                int c = symbols[i] & 0xFF;
+                writeBits(codes[c], lengths[c]);
+            }
+            return;
+        }
+
+        // Fewer than 32 bits are pending before each code, so with it they
+        // fit in the register
+        long register = bitBuffer;
+        int pending = bitCount;
+        long written = 0;
+        for (int i = off; i < off + len; i++) {
+            int c = symbols[i] & 0xFF;
+            int length = lengths[c];
+            register = (register << length) | (codes[c] & ((1L << length) - 1));
+            pending += length;
+            written += length;
+            if (pending >= 32) {
+                pending -= 32;
+                if (position + 4 > buffer.length) flushBuffer();
+                INT_VIEW.set(buffer, position, (int) (register >>> pending));
+                position += 4;
+            }
+        }
+        while (pending >= 8) {
+            pending -= 8;
+            if (position == buffer.length) flushBuffer();
+            buffer[position++] = (byte) (register >>> pending);
+        }
+        bitBuffer = register & ((1L << pending) - 1);
+        bitCount = pending;
+        bitsWritten += written;
+    }
+
+    /**
+     * @return The number of bits written so far, including padding
+     */
+    public long getBitsWritten() {
+        return bitsWritten;
+    }
+
+    /**
+     * Writes every complete byte to the underlying stream and flushes it,
+     * keeping the last partial byte, so a reader can decode everything up
+     * to here without the stream being padded
+     */
+    public void flushBytes() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Pads the last partial byte with zeroes and writes everything buffered
+     * to the underlying stream
+     */
+    public void flush() throws IOException {
+        if (bitCount > 0) writeBits(0, 8 - bitCount);
+        flushBuffer();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,447 @@
+package huffman;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class compresses a file as independent fixed size blocks, each with
+ * its own huffman code built from its character counts by TreeBuilder.
+ * Blocks are encoded and decoded concurrently on a thread pool.
+ *
+ * The container starts with the magic number "HUFB", the block size, the
+ * original length, the number of blocks and the number of streams per
+ * block, followed by an index with the file offset and length of every
+ * encoded block. Each encoded block is the code lengths of its characters
+ * followed by its canonical codes.
+ *
+ * With more than one stream, character i of a block is written to stream
+ * i % streams, each stream with its own bit position. The code lengths are
+ * followed by a jump table with the byte size of every stream but the last,
+ * then the streams one after another. A decoder can then advance all the
+ * streams in the same loop iteration, since no stream has to wait for
+ * another's code lengths to know where its next code starts.
+ */
+public class BlockCompressor {
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    public static final int INTERLEAVED_STREAMS = 4;
+
+    // Reads eight bytes of a byte array at once, first byte highest
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.BIG_ENDIAN);
+    static final int MAX_STREAMS = 8;
+
+    private static final int MAGIC = 0x48554642;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 1;
+    private static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+    private int blockSize;
+    private int threads;
+    private int streams;
+
+    public BlockCompressor() {
+        this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param blockSize The number of input bytes in every block but the last
+     * @param threads   The number of blocks to encode or decode at once
+     */
+    public BlockCompressor(int blockSize, int threads) {
+        this(blockSize, threads, 1);
+    }
+
+    /**
+     * @param blockSize The number of input bytes in every block but the last
+     * @param threads   The number of blocks to encode or decode at once
+     * @param streams   The number of interleaved streams per block, 1 to 8,
+     *                  e.g. INTERLEAVED_STREAMS. Only used by compress, since
+     *                  decompress reads it from the container.
+     */
+    public BlockCompressor(int blockSize, int threads, int streams) {
+        if (blockSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Block size and threads must be positive");
+        }
+        if (streams < 1 || streams > MAX_STREAMS) {
+            throw new IllegalArgumentException("Streams must be between 1 and " + MAX_STREAMS);
+        }
+        this.blockSize = blockSize;
+        this.threads = threads;
+        this.streams = streams;
+    }
+
+    /**
+     * Compresses inputFile into encodedFile
+     *
+     * @param inputFile   The file to compress
+     * @param encodedFile The file to write the container to
+     */
+    public void compress(String inputFile, String encodedFile) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long length = in.size();
+            long blockCount = blockCount(length, blockSize);
+            // The header and index are held in one buffer
+            if (blockCount > (Integer.MAX_VALUE - HEADER_SIZE) / INDEX_ENTRY_SIZE) {
+                throw new IOException("Too many blocks, use a bigger block size");
+            }
+            int blocks = (int) blockCount;
+
+            // Blocks are written in order after room for the header and index,
+            // which are filled in once every block's size is known
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + blocks * INDEX_ENTRY_SIZE);
+            header.putInt(MAGIC).putInt(blockSize).putLong(length).putInt(blocks).put((byte) streams);
+            long offset = header.capacity();
+
+            // Keep a bounded number of blocks in flight so memory stays bounded
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            for (int block = 0; block < blocks; block++) {
+                while (submitted < blocks && pending.size() < threads * 2) {
+                    long start = (long) submitted * blockSize;
+                    int size = (int) Math.min(blockSize, length - start);
+                    pending.add(pool.submit(encodeTask(in, start, size, streams)));
+                    submitted++;
+                }
+
+                byte[] encoded = get(pending.remove());
+                header.putLong(offset).putInt(encoded.length);
+                writeFully(out, ByteBuffer.wrap(encoded), offset);
+                offset += encoded.length;
+            }
+
+            header.flip();
+            writeFully(out, header, 0);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Decompresses a container written by compress into decodedFile
+     *
+     * @param encodedFile The container to read
+     * @param decodedFile The file to write the original bytes to
+     */
+    public void decompress(String encodedFile, String decodedFile) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel in = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(Paths.get(decodedFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = readFully(in, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) throw new IOException("Not a block compressed file");
+            int size = header.getInt();
+            long length = header.getLong();
+            int blocks = header.getInt();
+            int streams = header.get();
+            if (streams < 1 || streams > MAX_STREAMS) throw new IOException("Invalid number of streams");
+            if (size <= 0 || length < 0 || blocks != blockCount(length, size)) {
+                throw new IOException("Invalid block size, length or number of blocks");
+            }
+            long indexSize = (long) blocks * INDEX_ENTRY_SIZE;
+            if (HEADER_SIZE + indexSize > in.size()) throw new IOException("Index is past the end of the file");
+            ByteBuffer index = readFully(in, HEADER_SIZE, (int) indexSize);
+
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            for (int block = 0; block < blocks; block++) {
+                while (submitted < blocks && pending.size() < threads * 2) {
+                    long offset = index.getLong();
+                    int encodedSize = index.getInt();
+                    if (offset < 0 || encodedSize < 0 || offset > in.size() - encodedSize) {
+                        throw new IOException("Invalid index entry");
+                    }
+                    int decodedSize = (int) Math.min(size, length - (long) submitted * size);
+                    pending.add(pool.submit(decodeTask(in, offset, encodedSize, decodedSize, streams)));
+                    submitted++;
+                }
+                writeFully(out, ByteBuffer.wrap(get(pending.remove())), (long) block * size);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Blocks needed for length bytes, the last one possibly partial
+    private static long blockCount(long length, int blockSize) {
+        return length / blockSize + (length % blockSize != 0 ? 1 : 0);
+    }
+
+    private static Callable<byte[]> encodeTask(FileChannel in, long start, int size, int streams) {
+        return () -> {
+            ByteBuffer block = readFully(in, start, size);
+            return encodeBlock(block.array(), 0, size, streams);
+        };
+    }
+
+    private static Callable<byte[]> decodeTask(FileChannel in, long offset, int encodedSize, int decodedSize,
+            int streams) {
+        return () -> decodeBlock(readFully(in, offset, encodedSize).array(), decodedSize, streams);
+    }
+
+    /**
+     * Encodes bytes [start, start + size) with their own code lengths and
+     * canonical codes
+     *
+     * @param bytes   The input
+     * @param start   The first byte of the block
+     * @param size    The number of bytes in the block
+     * @param streams The number of interleaved streams
+     * @return The code lengths followed by the encoded bits
+     */
+    static byte[] encodeBlock(byte[] bytes, int start, int size, int streams) throws IOException {
+        long[] frequencies = new long[Histogram.ALPHABET_SIZE];
+        Histogram.count(bytes, start, size, frequencies);
+        // Interleaved streams are decoded fastest when every code fits in
+        // one table lookup, see decodeFour, which costs a tiny bit of size
+        CodeTable table = streams > 1 ? CodeTable.limited(frequencies, DecodeTable.DEFAULT_TABLE_BITS)
+                : CodeTable.canonical(TreeBuilder.codeLengths(frequencies));
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(size / 2 + 64);
+        DataOutputStream header = new DataOutputStream(encoded);
+        table.writeLengths(header);
+        header.flush();
+
+        long[] codes = table.getCodes();
+        int[] lengths = table.getLengths();
+        if (streams == 1) {
+            BitOutputStream out = new BitOutputStream(encoded);
+            out.writeCodes(bytes, start, size, codes, lengths);
+            out.flush();
+            return encoded.toByteArray();
+        }
+
+        ByteArrayOutputStream[] streamBytes = new ByteArrayOutputStream[streams];
+        BitOutputStream[] out = new BitOutputStream[streams];
+        for (int k = 0; k < streams; k++) {
+            streamBytes[k] = new ByteArrayOutputStream(size / streams / 2 + 16);
+            out[k] = new BitOutputStream(streamBytes[k], 1 << 12);
+        }
+        for (int i = 0; i < size; i++) {
+            int c = bytes[start + i] & 0xFF;
+            out[i % streams].writeBits(codes[c], lengths[c]);
+        }
+        for (int k = 0; k < streams; k++) {
+            out[k].flush();
+            if (k < streams - 1) header.writeInt(streamBytes[k].size());
+        }
+        for (int k = 0; k < streams; k++) {
+            streamBytes[k].writeTo(encoded);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Decodes a block written by encodeBlock
+     *
+     * @param encoded     The code lengths followed by the encoded bits
+     * @param decodedSize The number of bytes in the original block
+     * @param streams     The number of interleaved streams
+     * @return The original bytes
+     */
+    static byte[] decodeBlock(byte[] encoded, int decodedSize, int streams) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+        DataInputStream header = new DataInputStream(in);
+        CodeTable table = CodeTable.readLengths(header, Histogram.ALPHABET_SIZE);
+        if (streams > 1) return decodeInterleaved(encoded, header, in, decodedSize, streams, table);
+        int headerSize = encoded.length - in.available();
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(decodedSize);
+        DecodeTable decodeTable = new DecodeTable(table.toTree());
+        BitInputStream bits = new BitInputStream(ByteBuffer.wrap(encoded, headerSize, encoded.length - headerSize));
+        decodeTable.decode(bits, decodedSize, decoded);
+        if (decoded.size() != decodedSize) throw new IOException("Block ended early");
+        return decoded.toByteArray();
+    }
+
+    private static byte[] decodeInterleaved(byte[] encoded, DataInputStream header, ByteArrayInputStream in,
+            int decodedSize, int streams, CodeTable table) throws IOException {
+        int[] sizes = new int[streams];
+        for (int k = 0; k < streams - 1; k++) sizes[k] = header.readInt();
+        int[] starts = new int[streams];
+        int[] ends = new int[streams];
+        int start = encoded.length - in.available();
+        for (int k = 0; k < streams; k++) {
+            int size = k < streams - 1 ? sizes[k] : encoded.length - start;
+            if (size < 0 || start + size > encoded.length) throw new IOException("Invalid jump table");
+            starts[k] = start;
+            ends[k] = start + size;
+            start += size;
+        }
+
+        DecodeTable decodeTable = new DecodeTable(table.toTree());
+        byte[] decoded = new byte[decodedSize];
+        int maxLength = 0;
+        for (int length : table.getLengths()) maxLength = Math.max(maxLength, length);
+        int[] skips = new int[streams];
+        int i = 0;
+        if (streams == 4 && maxLength <= decodeTable.getTableBits()) {
+            i = decodeFour(encoded, starts, ends, skips, decodeTable, decoded);
+        }
+
+        // The rest, from where each stream got to, one character at a time.
+        // Every iteration decodes one character from each stream, and those
+        // decodes do not depend on each other.
+        BitInputStream[] bits = new BitInputStream[streams];
+        for (int k = 0; k < streams; k++) {
+            bits[k] = new BitInputStream(ByteBuffer.wrap(encoded, starts[k], ends[k] - starts[k]));
+            bits[k].skipBits(skips[k]);
+        }
+        for (; i + streams <= decodedSize; i += streams) {
+            for (int k = 0; k < streams; k++) {
+                int c = decodeTable.decodeOne(bits[k]);
+                if (c < 0) throw new IOException("Block ended early");
+                decoded[i + k] = (byte) c;
+            }
+        }
+        for (; i < decodedSize; i++) {
+            int c = decodeTable.decodeOne(bits[i % streams]);
+            if (c < 0) throw new IOException("Block ended early");
+            decoded[i] = (byte) c;
+        }
+        return decoded;
+    }
+
+    // Decodes four streams whose codes all fit in the table, for as long as
+    // every stream has enough bits left. Each stream's bit register and
+    // count are local variables, so the four lookups of an iteration do not
+    // wait on each other or on fields. The registers are topped up to at
+    // least 57 bits once per ROUNDS iterations, which is enough for ROUNDS
+    // codes of up to tableBits bits, so the lookups themselves are a shift,
+    // a mask and a table read. Moves starts and skips to the first bit not
+    // decoded yet and returns the number of characters decoded.
+    private static int decodeFour(byte[] encoded, int[] starts, int[] ends, int[] skips,
+            DecodeTable decodeTable, byte[] decoded) throws IOException {
+        int tableBits = decodeTable.getTableBits();
+        int mask = (1 << tableBits) - 1;
+        int rounds = 56 / tableBits;
+        int[] entries = decodeTable.getEntries();
+
+        long r0 = 0, r1 = 0, r2 = 0, r3 = 0;
+        int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+        int p0 = starts[0], p1 = starts[1], p2 = starts[2], p3 = starts[3];
+        int e0 = ends[0], e1 = ends[1], e2 = ends[2], e3 = ends[3];
+        int i = 0;
+        while (i + 4 * rounds <= decoded.length) {
+            if (p0 + 8 <= e0) {
+                int take = (63 - c0) >>> 3;
+                r0 = (r0 << (take << 3)) | ((long) LONG_VIEW.get(encoded, p0) >>> 1 >>> (63 - (take << 3)));
+                p0 += take;
+                c0 += take << 3;
+            } else {
+                while (c0 <= 56 && p0 < e0) {
+                    r0 = (r0 << 8) | (encoded[p0++] & 0xFF);
+                    c0 += 8;
+                }
+            }
+            if (p1 + 8 <= e1) {
+                int take = (63 - c1) >>> 3;
+                r1 = (r1 << (take << 3)) | ((long) LONG_VIEW.get(encoded, p1) >>> 1 >>> (63 - (take << 3)));
+                p1 += take;
+                c1 += take << 3;
+            } else {
+                while (c1 <= 56 && p1 < e1) {
+                    r1 = (r1 << 8) | (encoded[p1++] & 0xFF);
+                    c1 += 8;
+                }
+            }
+            if (p2 + 8 <= e2) {
+                int take = (63 - c2) >>> 3;
+                r2 = (r2 << (take << 3)) | ((long) LONG_VIEW.get(encoded, p2) >>> 1 >>> (63 - (take << 3)));
+                p2 += take;
+                c2 += take << 3;
+            } else {
+                while (c2 <= 56 && p2 < e2) {
+                    r2 = (r2 << 8) | (encoded[p2++] & 0xFF);
+                    c2 += 8;
+                }
+            }
+            if (p3 + 8 <= e3) {
+                int take = (63 - c3) >>> 3;
+                r3 = (r3 << (take << 3)) | ((long) LONG_VIEW.get(encoded, p3) >>> 1 >>> (63 - (take << 3)));
+                p3 += take;
+                c3 += take << 3;
+            } else {
+                while (c3 <= 56 && p3 < e3) {
+                    r3 = (r3 << 8) | (encoded[p3++] & 0xFF);
+                    c3 += 8;
+                }
+            }
+            // Near the end of a stream, the rest is left to decodeOne
+            if (Math.min(Math.min(c0, c1), Math.min(c2, c3)) < rounds * tableBits) break;
+
+            // An entry of 0 is a code which is not in the table
+            int invalid = 0;
+            for (int round = 0; round < rounds; round++) {
+                int x0 = entries[(int) (r0 >>> (c0 - tableBits)) & mask];
+                int x1 = entries[(int) (r1 >>> (c1 - tableBits)) & mask];
+                int x2 = entries[(int) (r2 >>> (c2 - tableBits)) & mask];
+                int x3 = entries[(int) (r3 >>> (c3 - tableBits)) & mask];
+                c0 -= x0 & 0xFF;
+                c1 -= x1 & 0xFF;
+                c2 -= x2 & 0xFF;
+                c3 -= x3 & 0xFF;
+                decoded[i] = (byte) (x0 >>> 8);
+                decoded[i + 1] = (byte) (x1 >>> 8);
+                decoded[i + 2] = (byte) (x2 >>> 8);
+                decoded[i + 3] = (byte) (x3 >>> 8);
+                i += 4;
+                invalid |= (x0 - 1) | (x1 - 1) | (x2 - 1) | (x3 - 1);
+            }
+            if (invalid < 0) throw new IOException("Invalid code");
+        }
+
+        long[] next = { 8L * p0 - c0, 8L * p1 - c1, 8L * p2 - c2, 8L * p3 - c3 };
+        for (int k = 0; k < 4; k++) {
+            starts[k] = (int) (next[k] >>> 3);
+            skips[k] = (int) (next[k] & 7);
+        }
+        return i;
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a block", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Error while coding a block", e.getCause());
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes and decodes between ByteBuffers, heap or direct, with
+ * a fixed CodeTable, for callers such as NIO servers which already hold
+ * their messages in buffers. Nothing goes through files, strings or extra
+ * arrays: bytes are read from src and written to dst in place.
+ *
+ * An Encoder or Decoder keeps its partial state between calls, so when dst
+ * fills up or src runs out, the call returns and the next call carries on
+ * where it stopped, like a CharsetEncoder. Each call reports how many bytes
+ * it consumed and produced, and moves the buffers' positions to match.
+ *
+ * Only the codes are written, so the table and the decoded length have to
+ * be known to the decoder some other way, e.g. a HuffmanDictionary or a
+ * CodeTable from Histogram.count and CodeTable.limited.
+ */
+public class ByteBufferCodec {
+    // The register has to hold 7 pending bits and a whole code
+    private static final int MAX_CODE_LENGTH = 57;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private CodeTable table;
+    private DecodeTable decodeTable;
+
+    /**
+     * What one call to encode, finish or decode did
+     */
+    public static class Result {
+        private int consumed;
+        private int produced;
+        private boolean overflow;
+
+        public int getConsumed() { return consumed; }
+        public int getProduced() { return produced; }
+
+        /**
+         * @return Whether the call stopped because dst was full, rather
+         *         than because src ran out or the work was done
+         */
+        public boolean isOverflow() { return overflow; }
+    }
+
+    /**
+     * @param table The codes, none longer than 57 bits
+     */
+    public ByteBufferCodec(CodeTable table) {
+        for (int length : table.getLengths()) {
+            if (length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Codes over " + MAX_CODE_LENGTH + " bits, use CodeTable.limited");
+            }
+        }
+        this.table = table;
+        decodeTable = new DecodeTable(table.toTree());
+    }
+
+    public Encoder newEncoder() {
+        return new Encoder();
+    }
+
+    /**
+     * @param length The number of bytes which were encoded
+     */
+    public Decoder newDecoder(long length) {
+        if (length < 0) throw new IllegalArgumentException("Length must not be negative");
+        return new Decoder(length);
+    }
+
+    /**
+     * Encodes any number of src buffers into one stream of codes. The
+     * codes of a byte can be split between two dst buffers.
+     */
+    public class Encoder {
+        private long[] codes = table.getCodes();
+        private int[] lengths = table.getLengths();
+
+        // The low bitCount bits are written next, oldest highest
+        private long bitBuffer;
+        private int bitCount;
+
+        private Encoder() {
+        }
+
+        /**
+         * Encodes bytes from src into dst until src is empty or dst is full
+         *
+         * @param src The bytes to encode
+         * @param dst Where to write the codes
+         * @return The bytes consumed and produced
+         */
+        public Result encode(ByteBuffer src, ByteBuffer dst) {
+            Result result = new Result();
+            int srcStart = src.position();
+            int dstStart = dst.position();
+            while (true) {
+                while (bitCount >= 8 && dst.hasRemaining()) {
+                    bitCount -= 8;
+                    dst.put((byte) (bitBuffer >>> bitCount));
+                }
+                if (bitCount >= 8) {
+                    result.overflow = true;
+                    break;
+                }
+                if (!src.hasRemaining()) break;
+
+                int c = src.get() & 0xFF;
+                if (lengths[c] == 0) {
+                    src.position(src.position() - 1);
+                    throw new IllegalArgumentException("Byte " + c + " has no code");
+                }
+                bitBuffer = (bitBuffer << lengths[c]) | codes[c];
+                bitCount += lengths[c];
+            }
+            result.consumed = src.position() - srcStart;
+            result.produced = dst.position() - dstStart;
+            return result;
+        }
+
+        /**
+         * Writes the last bits, zero padded to a whole byte. Call it again
+         * with more room if the result is an overflow.
+         *
+         * @param dst Where to write the codes
+         * @return The bytes produced
+         */
+        public Result finish(ByteBuffer dst) {
+            Result result = encode(EMPTY, dst);
+            if (result.overflow) return result;
+            if (bitCount > 0) {
+                if (!dst.hasRemaining()) {
+                    result.overflow = true;
+                    return result;
+                }
+                dst.put((byte) (bitBuffer << (8 - bitCount)));
+                bitCount = 0;
+                result.produced++;
+            }
+            return result;
+        }
+
+        /**
+         * Drops any pending bits so a new stream can be encoded
+         */
+        public void reset() {
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+    }
+
+    /**
+     * Decodes a stream written by an Encoder, which may arrive split over
+     * any number of src buffers
+     */
+    public class Decoder {
+        private long remaining;
+
+        // The low bitCount bits are the next bits of input, oldest highest
+        private long bitBuffer;
+        private int bitCount;
+
+        private Decoder(long length) {
+            remaining = length;
+        }
+
+        /**
+         * Decodes from src into dst until every byte is decoded, src runs
+         * out or dst is full
+         *
+         * @param src The codes
+         * @param dst Where to write the decoded bytes
+         * @return The bytes consumed and produced
+         */
+        public Result decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+            Result result = new Result();
+            int srcStart = src.position();
+            int dstStart = dst.position();
+            int tableBits = decodeTable.getTableBits();
+            while (remaining > 0) {
+                if (!dst.hasRemaining()) {
+                    result.overflow = true;
+                    break;
+                }
+                while (bitCount <= 56 && src.hasRemaining()) {
+                    bitBuffer = (bitBuffer << 8) | (src.get() & 0xFF);
+                    bitCount += 8;
+                }
+
+                int bits = peek(tableBits);
+                int length = decodeTable.length(bits);
+                int c;
+                if (length != 0) {
+                    // Past bitCount the peeked bits are zero padding, so
+                    // the code is only real if it ends before them
+                    if (length > bitCount) break;
+                    c = decodeTable.symbol(bits);
+                } else {
+                    // Finish the code on the tree without consuming, in
+                    // case the rest of it has not arrived yet
+                    if (tableBits > bitCount) break;
+                    TreeNode ptr = decodeTable.subtree(bits);
+                    length = tableBits;
+                    while (ptr != null && (ptr.getLeft() != null || ptr.getRight() != null)) {
+                        if (length >= bitCount) break;
+                        ptr = (bitBuffer >>> (bitCount - length - 1) & 1) == 0 ? ptr.getLeft() : ptr.getRight();
+                        length++;
+                    }
+                    if (ptr == null) throw new IOException("Invalid code");
+                    if (length > bitCount || ptr.getLeft() != null || ptr.getRight() != null) break;
+                    c = ptr.getData().getCharacter();
+                }
+                bitCount -= length;
+                dst.put((byte) c);
+                remaining--;
+            }
+            // The register reads up to 8 bytes ahead. Give back the whole
+            // ones this call read and did not use, so src stops at the end
+            // of the codes, or where dst filled up, and not after them.
+            if (remaining == 0 || result.overflow) {
+                int unread = Math.min(bitCount / 8, src.position() - srcStart);
+                src.position(src.position() - unread);
+                bitBuffer >>>= unread * 8;
+                bitCount -= unread * 8;
+            }
+            result.consumed = src.position() - srcStart;
+            result.produced = dst.position() - dstStart;
+            return result;
+        }
+
+        /**
+         * @return Whether every byte has been decoded
+         */
+        public boolean isFinished() {
+            return remaining == 0;
+        }
+
+        private int peek(int count) {
+            if (bitCount >= count) return (int) (bitBuffer >>> (bitCount - count)) & ((1 << count) - 1);
+            return (int) (bitBuffer << (count - bitCount)) & ((1 << count) - 1);
+        }
+    }
+}
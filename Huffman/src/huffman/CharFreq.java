@@ -22,8 +22,8 @@ public class CharFreq implements Comparable<CharFreq> {
     
     // Allows us to use Collections.sort() to sort by probOcc
     public int compareTo(CharFreq cf) {
-        Double d1 = probOcc, d2 = cf.probOcc;
-        if (d1.compareTo(d2) != 0) return d1.compareTo(d2);
+        int byProbOcc = Double.compare(probOcc, cf.probOcc);
+        if (byProbOcc != 0) return byProbOcc;
         return character.compareTo(cf.character);
     }
 
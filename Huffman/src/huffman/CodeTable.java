@@ -0,0 +1,204 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This class holds the code of every character as a number and a length,
+ * instead of a string of 1's and 0's. Canonical codes are assigned from the
+ * lengths alone, so storing the lengths is enough to rebuild the codes.
+ */
+public class CodeTable {
+    private long[] codes;
+    private int[] lengths;
+
+    private CodeTable(long[] codes, int[] lengths) {
+        this.codes = codes;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Finds the code of every leaf of a huffman coding tree in one traversal,
+     * 0 for left and 1 for right
+     *
+     * @param root         The root of the tree
+     * @param alphabetSize The number of possible characters
+     * @return The table of the tree's codes
+     */
+    public static CodeTable fromTree(TreeNode root, int alphabetSize) {
+        CodeTable table = new CodeTable(new long[alphabetSize], new int[alphabetSize]);
+        table.findCodes(root, 0, 0);
+        return table;
+    }
+
+    private void findCodes(TreeNode node, long code, int depth) {
+        if (node == null) return;
+        if (node.getLeft() == null && node.getRight() == null) {
+            if (depth > 64) {
+                throw new IllegalArgumentException("Code lengths over 64 bits are not supported");
+            }
+            codes[node.getData().getCharacter()] = code;
+            lengths[node.getData().getCharacter()] = depth;
+            return;
+        }
+        findCodes(node.getLeft(), code << 1, depth + 1);
+        findCodes(node.getRight(), (code << 1) | 1, depth + 1);
+    }
+
+    /**
+     * Finds the depth of every leaf of a huffman coding tree
+     *
+     * @param root         The root of the tree
+     * @param alphabetSize The number of possible characters
+     * @return Array where index i is the code length of character i, or 0
+     */
+    public static int[] lengthsFromTree(TreeNode root, int alphabetSize) {
+        return fromTree(root, alphabetSize).lengths;
+    }
+
+    /**
+     * Finds optimal code lengths of at most maxLength bits for the characters
+     * with a count above 0 and assigns their canonical codes. A lone
+     * character still gets a 1 bit code.
+     *
+     * @param frequencies Array where index i is the count of character i
+     * @param maxLength   The longest code allowed
+     * @return The table of canonical codes
+     */
+    public static CodeTable limited(long[] frequencies, int maxLength) {
+        int present = 0;
+        for (long frequency : frequencies) if (frequency > 0) present++;
+        long[] weights = new long[present];
+        int[] characters = new int[present];
+        for (int i = 0, j = 0; i < frequencies.length; i++) {
+            if (frequencies[i] == 0) continue;
+            weights[j] = frequencies[i];
+            characters[j++] = i;
+        }
+
+        int[] codeLengths = PackageMerge.codeLengths(weights, maxLength);
+        int[] lengths = new int[frequencies.length];
+        for (int j = 0; j < present; j++) lengths[characters[j]] = codeLengths[j];
+        return canonical(lengths);
+    }
+
+    /**
+     * Assigns canonical codes: characters are ordered by code length and
+     * then by value, and each one gets the next number at its length
+     *
+     * @param lengths Array where index i is the code length of character i
+     * @return The table of canonical codes for those lengths
+     */
+    public static CodeTable canonical(int[] lengths) {
+        int maxLength = 0;
+        for (int length : lengths) maxLength = Math.max(maxLength, length);
+        if (maxLength > 64) {
+            throw new IllegalArgumentException("Code lengths over 64 bits are not supported");
+        }
+
+        // Count the codes of each length to find the first code of each length
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int length : lengths) lengthCounts[length]++;
+        lengthCounts[0] = 0;
+        long[] nextCode = new long[maxLength + 1];
+        long code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+
+        long[] codes = new long[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] != 0) codes[i] = nextCode[lengths[i]]++;
+        }
+        return new CodeTable(codes, lengths.clone());
+    }
+
+    public int size() { return lengths.length; }
+    public long getCode(int c) { return codes[c]; }
+    public int getLength(int c) { return lengths[c]; }
+
+    public long[] getCodes() { return codes; }
+    public int[] getLengths() { return lengths; }
+
+    /**
+     * @return Array where index i is the bitstring of character i, or null
+     */
+    public String[] toStrings() {
+        String[] result = new String[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] == 0) continue;
+            StringBuilder sb = new StringBuilder(lengths[i]);
+            for (int bit = lengths[i] - 1; bit >= 0; bit--) {
+                sb.append((codes[i] >>> bit & 1) == 0 ? '0' : '1');
+            }
+            result[i] = sb.toString();
+        }
+        return result;
+    }
+
+    /**
+     * Builds a huffman coding tree whose paths are these codes. The
+     * probabilities in the tree are all 0, since only the shape is known.
+     *
+     * @return The root of the tree
+     */
+    public TreeNode toTree() {
+        TreeNode root = new TreeNode(new CharFreq(null, 0), null, null);
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] == 0) continue;
+            TreeNode ptr = root;
+            for (int bit = lengths[i] - 1; bit >= 0; bit--) {
+                boolean right = (codes[i] >>> bit & 1) == 1;
+                TreeNode next = right ? ptr.getRight() : ptr.getLeft();
+                if (next == null) {
+                    next = new TreeNode(new CharFreq(null, 0), null, null);
+                    if (right) ptr.setRight(next);
+                    else ptr.setLeft(next);
+                }
+                ptr = next;
+            }
+            ptr.getData().setCharacter((char) i);
+        }
+        return root;
+    }
+
+    /**
+     * Writes the code lengths as the number of coded characters followed by
+     * a (character, length) pair for each of them
+     *
+     * @param out The stream to write to
+     */
+    public void writeLengths(DataOutputStream out) throws IOException {
+        int coded = 0;
+        for (int length : lengths) if (length != 0) coded++;
+        out.writeShort(coded);
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] == 0) continue;
+            out.writeByte(i);
+            out.writeByte(lengths[i]);
+        }
+    }
+
+    /**
+     * Reads lengths written by writeLengths and assigns their canonical codes
+     *
+     * @param in           The stream to read from
+     * @param alphabetSize The number of possible characters
+     * @return The table of canonical codes
+     */
+    public static CodeTable readLengths(DataInputStream in, int alphabetSize) throws IOException {
+        int[] lengths = new int[alphabetSize];
+        int coded = in.readUnsignedShort();
+        for (int i = 0; i < coded; i++) {
+            int c = in.readUnsignedByte();
+            int length = in.readUnsignedByte();
+            if (c >= alphabetSize || length == 0 || length > 64) {
+                throw new IOException("Invalid code table");
+            }
+            lengths[c] = length;
+        }
+        return canonical(lengths);
+    }
+}
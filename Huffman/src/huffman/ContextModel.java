@@ -0,0 +1,228 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class is an order-1 model: the code of each character is chosen by
+ * the character before it, so text like 'u' after 'q' or a space after a
+ * period gets a much shorter code than in a single table. The first
+ * character is coded as if it followed character 0.
+ *
+ * Every table costs header space, so a previous character only gets its
+ * own table when that saves more bits than the table takes. All the other
+ * previous characters share one fallback table built from their counts.
+ */
+public class ContextModel {
+    public static final int ALPHABET_SIZE = 256;
+
+    // Keeps each table's codes short enough for a small DecodeTable
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int DECODE_TABLE_BITS = 9;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // The table for each previous character, either its own or fallback
+    private CodeTable[] tables = new CodeTable[ALPHABET_SIZE];
+    private boolean[] own = new boolean[ALPHABET_SIZE];
+    private CodeTable fallback;
+
+    private ContextModel() {
+    }
+
+    /**
+     * Counts each character by the character before it
+     *
+     * @param in The characters to count
+     * @return Array where [p][c] is how many times c came right after p
+     */
+    public static long[][] countPairs(InputStream in) throws IOException {
+        long[][] counts = new long[ALPHABET_SIZE][ALPHABET_SIZE];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int previous = 0;
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                int c = chunk[i] & 0xFF;
+                counts[previous][c]++;
+                previous = c;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Builds the tables, merging the contexts which do not pay for their
+     * own table into the fallback
+     *
+     * @param counts The counts from countPairs
+     * @return The model
+     */
+    public static ContextModel build(long[][] counts) {
+        ContextModel model = new ContextModel();
+
+        // Compare each context's own table against one table for everything
+        long[] total = new long[ALPHABET_SIZE];
+        for (long[] context : counts) {
+            for (int c = 0; c < ALPHABET_SIZE; c++) total[c] += context[c];
+        }
+        int[] shared = CodeTable.limited(total, MAX_CODE_LENGTH).getLengths();
+
+        long[] rest = new long[ALPHABET_SIZE];
+        for (int p = 0; p < ALPHABET_SIZE; p++) {
+            CodeTable table = CodeTable.limited(counts[p], MAX_CODE_LENGTH);
+            long saved = 0;
+            int coded = 0;
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                if (counts[p][c] == 0) continue;
+                saved += counts[p][c] * (shared[c] - table.getLength(c));
+                coded++;
+            }
+            // The header takes 2 bytes per coded character and a count
+            if (saved > 8L * (2 + 2 * coded)) {
+                model.own[p] = true;
+                model.tables[p] = table;
+            } else {
+                for (int c = 0; c < ALPHABET_SIZE; c++) rest[c] += counts[p][c];
+            }
+        }
+
+        model.fallback = CodeTable.limited(rest, MAX_CODE_LENGTH);
+        for (int p = 0; p < ALPHABET_SIZE; p++) {
+            if (!model.own[p]) model.tables[p] = model.fallback;
+        }
+        return model;
+    }
+
+    /**
+     * @return The number of previous characters with their own table
+     */
+    public int getOwnTables() {
+        int n = 0;
+        for (boolean b : own) if (b) n++;
+        return n;
+    }
+
+    /**
+     * Writes which contexts have their own table as a 256 bit map, then the
+     * fallback's code lengths, then the code lengths of each own table
+     *
+     * @param out The stream to write to
+     */
+    public void write(DataOutputStream out) throws IOException {
+        for (int p = 0; p < ALPHABET_SIZE; p += 8) {
+            int bits = 0;
+            for (int i = 0; i < 8; i++) {
+                if (own[p + i]) bits |= 1 << i;
+            }
+            out.writeByte(bits);
+        }
+        fallback.writeLengths(out);
+        for (int p = 0; p < ALPHABET_SIZE; p++) {
+            if (own[p]) tables[p].writeLengths(out);
+        }
+    }
+
+    /**
+     * Reads a model written by write
+     *
+     * @param in The stream to read from
+     * @return The model
+     */
+    public static ContextModel read(DataInputStream in) throws IOException {
+        ContextModel model = new ContextModel();
+        for (int p = 0; p < ALPHABET_SIZE; p += 8) {
+            int bits = in.readUnsignedByte();
+            for (int i = 0; i < 8; i++) {
+                model.own[p + i] = (bits >>> i & 1) != 0;
+            }
+        }
+        model.fallback = CodeTable.readLengths(in, ALPHABET_SIZE);
+        for (int p = 0; p < ALPHABET_SIZE; p++) {
+            model.tables[p] = model.own[p] ? CodeTable.readLengths(in, ALPHABET_SIZE) : model.fallback;
+        }
+        return model;
+    }
+
+    /**
+     * Writes the code of every character of in, each from the table of the
+     * character before it
+     *
+     * @param in  The characters to encode, the same ones that were counted
+     * @param out The stream to write the codes to
+     */
+    public void encode(InputStream in, BitOutputStream out) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int previous = 0;
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                int c = chunk[i] & 0xFF;
+                CodeTable table = tables[previous];
+                if (table.getLength(c) == 0) {
+                    throw new IOException("Character " + c + " was not counted after " + previous);
+                }
+                out.writeBits(table.getCode(c), table.getLength(c));
+                previous = c;
+            }
+        }
+    }
+
+    /**
+     * Decodes characters until limit characters are written or the bits
+     * run out
+     *
+     * @param in    The encoded bits
+     * @param limit The most characters to decode
+     * @param out   The stream to write decoded characters to
+     * @return The number of characters decoded
+     */
+    public long decode(BitInputStream in, long limit, OutputStream out) throws IOException {
+        // Only the tables which have codes get a DecodeTable, and the
+        // fallback's is shared
+        DecodeTable[] decoders = new DecodeTable[ALPHABET_SIZE];
+        DecodeTable fallbackDecoder = null;
+        for (int p = 0; p < ALPHABET_SIZE; p++) {
+            if (own[p]) {
+                decoders[p] = new DecodeTable(tables[p].toTree(), DECODE_TABLE_BITS);
+            } else if (hasCodes(fallback)) {
+                if (fallbackDecoder == null) {
+                    fallbackDecoder = new DecodeTable(fallback.toTree(), DECODE_TABLE_BITS);
+                }
+                decoders[p] = fallbackDecoder;
+            }
+        }
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int size = 0;
+        long written = 0;
+        int previous = 0;
+        while (written < limit) {
+            if (decoders[previous] == null) {
+                throw new IOException("No codes after character " + previous);
+            }
+            int c = decoders[previous].decodeOne(in);
+            if (c < 0) break;
+
+            chunk[size++] = (byte) c;
+            written++;
+            previous = c;
+            if (size == chunk.length) {
+                out.write(chunk, 0, size);
+                size = 0;
+            }
+        }
+        out.write(chunk, 0, size);
+        return written;
+    }
+
+    private static boolean hasCodes(CodeTable table) {
+        for (int length : table.getLengths()) {
+            if (length != 0) return true;
+        }
+        return false;
+    }
+}
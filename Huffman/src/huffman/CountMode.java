@@ -0,0 +1,14 @@
+package huffman;
+
+/**
+ * The ways makeSortedList can count the characters of a file. They all
+ * produce the same sorted list.
+ */
+public enum CountMode {
+    // Read the file through a buffered stream
+    STREAM,
+    // Map the file into memory and count straight from the mapped buffer
+    MAPPED,
+    // Count ranges of the file in parallel on the common ForkJoinPool
+    PARALLEL
+}
@@ -0,0 +1,15 @@
+package huffman;
+
+/**
+ * The ways HuffmanCoding.decode can turn bits back into characters. They
+ * all produce the same output, so they can be compared against each other.
+ */
+public enum DecodeMode {
+    // Follow huffmanRoot one bit at a time
+    TREE,
+    // Look up several bits at a time in a DecodeTable
+    TABLE,
+    // Look up several bits at a time in a MultiSymbolDecodeTable, which
+    // can give up to three characters per lookup
+    MULTI_SYMBOL
+}
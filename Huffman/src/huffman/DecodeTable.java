@@ -0,0 +1,146 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class is a lookup table for decoding a huffman coding tree several
+ * bits at a time. The next tableBits bits of input index into the table,
+ * and the entry holds the decoded character and how many bits its code
+ * used. Codes longer than tableBits fall back to walking the tree from the
+ * node those bits lead to.
+ */
+public class DecodeTable {
+    public static final int DEFAULT_TABLE_BITS = 12;
+
+    private static final int OUTPUT_CHUNK_SIZE = 1 << 13;
+
+    private int tableBits;
+
+    // Each entry is (character << 8) | code length, or 0 if the code is
+    // longer than tableBits
+    private int[] entries;
+
+    // For the entries which are 0, the node reached after tableBits bits
+    private TreeNode[] subtrees;
+
+    public DecodeTable(TreeNode root) {
+        this(root, DEFAULT_TABLE_BITS);
+    }
+
+    public DecodeTable(TreeNode root, int maxTableBits) {
+        tableBits = Math.max(1, Math.min(maxTableBits, depth(root)));
+        entries = new int[1 << tableBits];
+        subtrees = new TreeNode[1 << tableBits];
+        fill(root, 0, 0);
+    }
+
+    public int getTableBits() { return tableBits; }
+
+    /**
+     * @param bits The next tableBits bits of input
+     * @return The decoded character, only valid if length(bits) is not 0
+     */
+    public int symbol(int bits) { return entries[bits] >>> 8; }
+
+    /**
+     * @param bits The next tableBits bits of input
+     * @return The length of the code those bits start with, or 0 if it is
+     *         longer than tableBits and has to go through subtree(bits)
+     */
+    public int length(int bits) { return entries[bits] & 0xFF; }
+
+    public TreeNode subtree(int bits) { return subtrees[bits]; }
+
+    /**
+     * @return The table itself, for decoders which inline the lookup. Each
+     *         entry is (character << 8) | code length, or 0 where length
+     *         is 0.
+     */
+    int[] getEntries() { return entries; }
+
+    /**
+     * Decodes characters until limit characters are written or the bits
+     * run out
+     *
+     * @param in    The encoded bits
+     * @param limit The most characters to decode
+     * @param out   The stream to write decoded characters to
+     * @return The number of characters decoded
+     */
+    public long decode(BitInputStream in, long limit, OutputStream out) throws IOException {
+        // Collect characters in a chunk so out is not called per character
+        byte[] chunk = new byte[OUTPUT_CHUNK_SIZE];
+        int size = 0;
+        long written = 0;
+        while (written < limit) {
+            int c = decodeOne(in);
+            if (c < 0) break;
+
+            chunk[size++] = (byte) c;
+            written++;
+            if (size == chunk.length) {
+                out.write(chunk, 0, size);
+                size = 0;
+            }
+        }
+        out.write(chunk, 0, size);
+        return written;
+    }
+
+    /**
+     * Decodes a single character
+     *
+     * @param in The encoded bits
+     * @return The character, or -1 if the bits run out first
+     */
+    public int decodeOne(BitInputStream in) throws IOException {
+        int bits = in.peekBits(tableBits);
+        int length = length(bits);
+        if (length != 0) {
+            if (!in.hasBits(length)) return -1;
+            in.skipBits(length);
+            return symbol(bits);
+        }
+
+        // The code is longer than the table, finish it on the tree
+        if (!in.hasBits(tableBits)) return -1;
+        in.skipBits(tableBits);
+        TreeNode ptr = subtree(bits);
+        while (ptr != null && (ptr.getLeft() != null || ptr.getRight() != null)) {
+            int bit = in.readBit();
+            if (bit < 0) return -1;
+            ptr = bit == 0 ? ptr.getLeft() : ptr.getRight();
+        }
+        if (ptr == null) throw new IOException("Invalid code");
+        return ptr.getData().getCharacter();
+    }
+
+    private void fill(TreeNode node, int code, int depth) {
+        // A tree with one character has no code starting with 1
+        if (node == null) return;
+        if (node.getLeft() == null && node.getRight() == null) {
+            // A lone root with no character is a tree with no codes
+            if (node.getData().getCharacter() == null) return;
+
+            // Every index which starts with this code decodes to this leaf
+            int shift = tableBits - depth;
+            int entry = (node.getData().getCharacter() << 8) | depth;
+            for (int i = code << shift; i < (code + 1) << shift; i++) {
+                entries[i] = entry;
+            }
+            return;
+        }
+        if (depth == tableBits) {
+            subtrees[code] = node;
+            return;
+        }
+        fill(node.getLeft(), code << 1, depth + 1);
+        fill(node.getRight(), (code << 1) | 1, depth + 1);
+    }
+
+    private static int depth(TreeNode node) {
+        if (node == null || (node.getLeft() == null && node.getRight() == null)) return 0;
+        return 1 + Math.max(depth(node.getLeft()), depth(node.getRight()));
+    }
+}
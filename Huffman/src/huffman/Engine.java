@@ -0,0 +1,14 @@
+package huffman;
+
+/**
+ * The entropy coders HuffmanCoding.compress can code characters with. Both
+ * use the same counts and the same file header, and decompress tells from
+ * the header which one wrote a file.
+ */
+public enum Engine {
+    // A whole number of bits per character, from canonical huffman codes
+    HUFFMAN,
+    // Table based asymmetric numeral systems, see TansCoder, which can
+    // spend a fraction of a bit on very common characters
+    TANS
+}
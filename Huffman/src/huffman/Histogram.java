@@ -0,0 +1,228 @@
+package huffman;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class counts how many times each byte value occurs in a file, which
+ * is the frequency pass of makeSortedList
+ */
+public class Histogram {
+    public static final int ALPHABET_SIZE = 256;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Bytes mapped at a time, small enough that per-window int counts
+    // cannot overflow
+    private static final long WINDOW_SIZE = 1L << 26;
+
+    // Ranges at most this long are counted by one task instead of split
+    private static final long TASK_SIZE = 1L << 24;
+
+    /**
+     * Reads the file through a FileInputStream in fixed size chunks
+     *
+     * @param fileName The file to count
+     * @return Array where index i is the number of bytes with value i
+     */
+    public static long[] countStream(String fileName) throws IOException {
+        long[] counts = new long[ALPHABET_SIZE];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (InputStream in = new FileInputStream(fileName)) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                count(chunk, 0, read, counts);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Maps the file into memory one window at a time and counts the bytes
+     * straight from the mapped buffer
+     *
+     * @param fileName The file to count
+     * @return Array where index i is the number of bytes with value i
+     */
+    public static long[] countMapped(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return countMapped(channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * Counts the bytes in [start, end) of a file, mapping it one window at
+     * a time
+     *
+     * @param channel The open file
+     * @param start   The first byte to count
+     * @param end     One past the last byte to count
+     * @return Array where index i is the number of bytes with value i
+     */
+    public static long[] countMapped(FileChannel channel, long start, long end) throws IOException {
+        long[] counts = new long[ALPHABET_SIZE];
+        for (long position = start; position < end; position += WINDOW_SIZE) {
+            long size = Math.min(WINDOW_SIZE, end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            count(window, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Splits the file into ranges which are counted by RecursiveTasks on the
+     * common ForkJoinPool, then adds their counts together
+     *
+     * @param fileName The file to count
+     * @return Array where index i is the number of bytes with value i
+     */
+    public static long[] countParallel(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            CountTask task = new CountTask(channel, 0, channel.size());
+            long[] counts = ForkJoinPool.commonPool().invoke(task);
+            if (task.error != null) throw task.error;
+            return counts;
+        }
+    }
+
+    // Counts [start, end) of the file, splitting it in half while it is
+    // longer than TASK_SIZE
+    @SuppressWarnings("serial")
+    private static class CountTask extends RecursiveTask<long[]> {
+        private FileChannel channel;
+        private long start;
+        private long end;
+        private IOException error;
+
+        CountTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected long[] compute() {
+            if (end - start <= TASK_SIZE) {
+                try {
+                    return countMapped(channel, start, end);
+                } catch (IOException e) {
+                    error = e;
+                    return new long[ALPHABET_SIZE];
+                }
+            }
+
+            long middle = start + (end - start) / 2;
+            CountTask left = new CountTask(channel, start, middle);
+            CountTask right = new CountTask(channel, middle, end);
+            left.fork();
+            long[] counts = right.compute();
+            long[] leftCounts = left.join();
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                counts[c] += leftCounts[c];
+            }
+
+            // Pass the first failure up to the task that was invoked
+            if (left.error != null) error = left.error;
+            else if (right.error != null) error = right.error;
+            return counts;
+        }
+    }
+
+    /**
+     * Adds the counts of the remaining bytes of buffer to counts, without
+     * moving its position. The buffer must hold fewer than 2^31 bytes.
+     *
+     * @param buffer The bytes to count
+     * @param counts Array where index i is the number of bytes with value i
+     */
+    public static void count(ByteBuffer buffer, long[] counts) {
+        if (buffer.hasArray()) {
+            count(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), counts);
+            return;
+        }
+
+        // A mapped or direct buffer is read eight bytes at a time, which
+        // costs far less than a bounds checked get per byte
+        int[] t0 = new int[ALPHABET_SIZE];
+        int[] t1 = new int[ALPHABET_SIZE];
+        int[] t2 = new int[ALPHABET_SIZE];
+        int[] t3 = new int[ALPHABET_SIZE];
+
+        int i = buffer.position();
+        int limit = buffer.limit();
+        for (; i + 8 <= limit; i += 8) {
+            long word = buffer.getLong(i);
+            t0[(int) word & 0xFF]++;
+            t1[(int) (word >>> 8) & 0xFF]++;
+            t2[(int) (word >>> 16) & 0xFF]++;
+            t3[(int) (word >>> 24) & 0xFF]++;
+            t0[(int) (word >>> 32) & 0xFF]++;
+            t1[(int) (word >>> 40) & 0xFF]++;
+            t2[(int) (word >>> 48) & 0xFF]++;
+            t3[(int) (word >>> 56) & 0xFF]++;
+        }
+        for (; i < limit; i++) {
+            t0[buffer.get(i) & 0xFF]++;
+        }
+        addTables(counts, t0, t1, t2, t3);
+    }
+
+    /**
+     * Adds the counts of bytes[off, off + len) to counts
+     *
+     * @param bytes  The bytes to count
+     * @param off    The first byte to count
+     * @param len    The number of bytes to count
+     * @param counts Array where index i is the number of bytes with value i
+     */
+    public static void count(byte[] bytes, int off, int len, long[] counts) {
+        // Runs of the same byte would make every increment wait on the one
+        // before it, so consecutive bytes go to four different tables. A
+        // jdk.incubator.vector kernel, a table per lane filled by gather and
+        // scatter, was slower than this on JDK 17 even with AVX-512.
+        int[] t0 = new int[ALPHABET_SIZE];
+        int[] t1 = new int[ALPHABET_SIZE];
+        int[] t2 = new int[ALPHABET_SIZE];
+        int[] t3 = new int[ALPHABET_SIZE];
+
+        int i = off;
+        int end = off + len;
+        for (; i + 4 <= end; i += 4) {
+            t0[bytes[i] & 0xFF]++;
+            t1[bytes[i + 1] & 0xFF]++;
+            t2[bytes[i + 2] & 0xFF]++;
+            t3[bytes[i + 3] & 0xFF]++;
+        }
+        for (; i < end; i++) {
+            t0[bytes[i] & 0xFF]++;
+        }
+        addTables(counts, t0, t1, t2, t3);
+    }
+
+    private static void addTables(long[] counts, int[] t0, int[] t1, int[] t2, int[] t3) {
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            counts[c] += (long) t0[c] + t1[c] + t2[c] + t3[c];
+        }
+    }
+
+    /**
+     * Adds the counts of the remaining bytes of buffer to counts one byte at
+     * a time. This is the plain loop count is checked against, see
+     * KernelCheck.
+     *
+     * @param buffer The bytes to count
+     * @param counts Array where index i is the number of bytes with value i
+     */
+    public static void countScalar(ByteBuffer buffer, long[] counts) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            counts[buffer.get(i) & 0xFF]++;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class makes channel versions of HuffmanOutputStream and
+ * HuffmanInputStream, with the same format. Heap buffers are copied
+ * straight from their arrays, and direct buffers go through one reused
+ * array, so nothing is allocated per call.
+ */
+public class HuffmanChannels {
+    private static final int COPY_SIZE = 1 << 13;
+
+    private HuffmanChannels() {
+    }
+
+    /**
+     * @param channel    The channel to write the encoding to
+     * @param bufferSize The number of bytes in every block but the last
+     * @return A channel which compresses everything written to it
+     */
+    public static WritableByteChannel newWritableChannel(WritableByteChannel channel, int bufferSize) {
+        return new Writer(new HuffmanOutputStream(Channels.newOutputStream(channel), bufferSize));
+    }
+
+    /**
+     * @param channel The channel written by newWritableChannel or a
+     *                HuffmanOutputStream
+     * @return A channel which reads the decompressed bytes
+     */
+    public static ReadableByteChannel newReadableChannel(ReadableByteChannel channel) {
+        return new Reader(new HuffmanInputStream(Channels.newInputStream(channel)));
+    }
+
+    private static class Writer implements WritableByteChannel {
+        private HuffmanOutputStream out;
+        private byte[] copy;
+        private boolean open = true;
+
+        Writer(HuffmanOutputStream out) {
+            this.out = out;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            int n = src.remaining();
+            if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.limit());
+                return n;
+            }
+            if (copy == null) copy = new byte[COPY_SIZE];
+            while (src.hasRemaining()) {
+                int length = Math.min(src.remaining(), copy.length);
+                src.get(copy, 0, length);
+                out.write(copy, 0, length);
+            }
+            return n;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            out.close();
+        }
+    }
+
+    private static class Reader implements ReadableByteChannel {
+        private HuffmanInputStream in;
+        private byte[] copy;
+        private boolean open = true;
+
+        Reader(HuffmanInputStream in) {
+            this.in = in;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (!dst.hasRemaining()) return 0;
+            if (dst.hasArray()) {
+                int n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (n > 0) dst.position(dst.position() + n);
+                return n;
+            }
+            if (copy == null) copy = new byte[COPY_SIZE];
+            int n = in.read(copy, 0, Math.min(dst.remaining(), copy.length));
+            if (n > 0) dst.put(copy, 0, n);
+            return n;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            in.close();
+        }
+    }
+}
@@ -1,8 +1,21 @@
 package huffman;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -14,10 +27,28 @@ import java.util.Collections;
  * @author Prince Rawal
  */
 public class HuffmanCoding {
+    private static final int ALPHABET_SIZE = 256;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // First bytes of a file written by compress, "HUF1"
+    private static final int MAGIC = 0x48554631;
+
+    // Set in the flags byte when the file ends with a sync point index
+    private static final int FLAG_SYNC_INDEX = 1;
+
+    // Set in the flags byte when the codes come from an order-1 ContextModel
+    private static final int FLAG_ORDER1 = 2;
+
+    // Set in the flags byte when the characters are coded by a TansCoder
+    private static final int FLAG_TANS = 4;
+
     private String fileName;
     private ArrayList<CharFreq> sortedCharFreqList;
     private TreeNode huffmanRoot;
     private String[] encodings;
+    private CodeTable codeTable;
+    private long[] frequencies;
+    private boolean pipelined;
 
     /**
      * Constructor used by the driver, sets filename
@@ -30,20 +61,40 @@ public class HuffmanCoding {
     }
 
     /**
-     * Reads from filename character by character, and sets sortedCharFreqList
+     * Reads from filename byte by byte, and sets sortedCharFreqList
      * to a new ArrayList of CharFreq objects with frequency > 0, sorted by
-     * frequency
+     * frequency. Every byte value 0-255 is its own character, so any file
+     * can be encoded, not just ASCII text.
      */
     public void makeSortedList() 
     {
-        StdIn.setFile(fileName);
-        int[] frequencies = new int[128];
+        makeSortedList(CountMode.STREAM);
+    }
+
+    /**
+     * Same as makeSortedList(), counting the file in the given mode
+     * 
+     * @param mode How to read the file while counting
+     */
+    public void makeSortedList(CountMode mode) 
+    {
+        frequencies = countCharacters(mode);
+        sortedCharFreqList = buildSortedList(frequencies);
+    }
+
+    /**
+     * Turns character counts into a list of CharFreq objects with frequency
+     * > 0, sorted by frequency
+     * 
+     * @param frequencies Array where index i is the count of character i
+     * @return The sorted list
+     */
+    static ArrayList<CharFreq> buildSortedList(long[] frequencies) 
+    {
         double count = 0;
-        while (StdIn.hasNextChar()) 
+        for (long frequency : frequencies) 
         {
-            count++;
-            char c = StdIn.readChar();
-            frequencies[c] = frequencies[c] + 1;
+            count += frequency;
         }
 
         ArrayList<CharFreq> result = new ArrayList<>();
@@ -60,59 +111,78 @@ public class HuffmanCoding {
         if (result.size() == 1) 
         {
             CharFreq freq = result.get(0);
-            int newASCII = (((int) freq.getCharacter()) + 1) % 128;
+            int newASCII = (((int) freq.getCharacter()) + 1) % ALPHABET_SIZE;
             result.add(new CharFreq((char) newASCII, 0));
         }
         Collections.sort(result);
-        sortedCharFreqList = result;
+        return result;
         /* Your code goes here */
     }
 
     /**
-     * Uses sortedCharFreqList to build a huffman coding tree, and stores its root
-     * in huffmanRoot
+     * Uses the character counts behind sortedCharFreqList to build a huffman
+     * coding tree, and stores its root in huffmanRoot. The tree is built on
+     * the exact counts by TreeBuilder, and only the finished tree is made
+     * of CharFreq and TreeNode objects.
      */
     public void makeTree() 
     {
-        /* Your code goes here */
-        Queue<TreeNode> source = new Queue<>();
-        Queue<TreeNode> target = new Queue<>();
-        for (int i = 0; i < sortedCharFreqList.size(); i++) 
+        huffmanRoot = TreeBuilder.buildTree(frequencies);
+    }
+
+    /**
+     * Same as makeTree(), except no code is longer than maxCodeLength bits.
+     * The lengths are the optimal ones under that limit, found by package
+     * merge, and the tree is the canonical one for those lengths.
+     * 
+     * @param maxCodeLength The longest code allowed, e.g. 12 or 15
+     */
+    public void makeTree(int maxCodeLength) 
+    {
+        // An empty file has no codes, and so no tree, as in makeTree()
+        if (sortedCharFreqList.isEmpty()) 
         {
-            source.enqueue(new TreeNode(sortedCharFreqList.get(i), null, null));
+            huffmanRoot = null;
+            return;
         }
-        while (!source.isEmpty() || target.size() > 1) 
+        long[] weights = new long[sortedCharFreqList.size()];
+        double[] probabilities = new double[ALPHABET_SIZE];
+        for (int i = 0; i < weights.length; i++) 
         {
-            TreeNode leftChild = null;
-            if (!source.isEmpty() && (target.isEmpty()
-                    || source.peek().getData().getProbOcc() <= target.peek().getData().getProbOcc())) 
-            {
-                leftChild = source.dequeue();
-            } 
-            else 
-            {
-                leftChild = target.dequeue();
-            }
-            TreeNode rightChild = null;
-            if (!source.isEmpty() && (target.isEmpty()
-                    || source.peek().getData().getProbOcc() <= target.peek().getData().getProbOcc())) {
-                rightChild = source.dequeue();
-            } 
-            else 
-            {
-                rightChild = target.dequeue();
-            }
+            CharFreq charFreq = sortedCharFreqList.get(i);
+            weights[i] = frequencies[charFreq.getCharacter()];
+            probabilities[charFreq.getCharacter()] = charFreq.getProbOcc();
+        }
+
+        int[] listLengths = PackageMerge.codeLengths(weights, maxCodeLength);
+        int[] lengths = new int[ALPHABET_SIZE];
+        for (int i = 0; i < weights.length; i++) 
+        {
+            lengths[sortedCharFreqList.get(i).getCharacter()] = listLengths[i];
+        }
+        huffmanRoot = CodeTable.canonical(lengths).toTree();
+        setProbabilities(huffmanRoot, probabilities);
+    }
 
-            double combinedOcc = leftChild.getData().getProbOcc() + rightChild.getData().getProbOcc();
-            TreeNode parent = new TreeNode(new CharFreq(null, combinedOcc), leftChild, rightChild);
-            target.enqueue(parent);
+    // Fills in the probabilities of a tree built from code lengths, where
+    // each node's is the sum of its children's
+    private static double setProbabilities(TreeNode node, double[] probabilities) 
+    {
+        if (node.getLeft() == null && node.getRight() == null) 
+        {
+            node.getData().setProbOcc(probabilities[node.getData().getCharacter()]);
+        } 
+        else 
+        {
+            node.getData().setProbOcc(setProbabilities(node.getLeft(), probabilities)
+                    + setProbabilities(node.getRight(), probabilities));
         }
-        huffmanRoot = target.dequeue();
+        return node.getData().getProbOcc();
     }
 
     /**
-     * Uses huffmanRoot to create a string array of size 128, where each
-     * index in the array contains that ASCII character's bitstring encoding.
+     * Uses huffmanRoot to create a string array of size 256, where each
+     * index in the array contains that byte's bitstring encoding.
      * Characters not
      * present in the huffman coding tree should have their spots in the array left
      * null.
@@ -121,58 +191,475 @@ public class HuffmanCoding {
     public void makeEncodings() 
     {
         /* Your code goes here */
-        String[] result = new String[128];
-        for (int i = 0; i < result.length; i++) 
+        codeTable = CodeTable.fromTree(huffmanRoot, ALPHABET_SIZE);
+        encodings = codeTable.toStrings();
+    }
+
+    /**
+     * Using the codes from makeEncodings and filename, this method writes the final encoding of
+     * 1's and 0's to the encoded file, in the same format as writeBitString.
+     * The input is read in fixed size chunks and the bits are packed through
+     * a BitOutputStream, so memory use does not depend on the input size.
+     * 
+     * @param encodedFile The file name into which the text file is to be encoded
+     */
+    public void encode(String encodedFile) 
+    {
+        long[] codes = codeTable.getCodes();
+        int[] lengths = codeTable.getLengths();
+
+        // writeBitString puts the padding in front, so the total number of
+        // bits has to be known before the first one is written
+        long[] counts = frequencies != null ? frequencies : countCharacters(CountMode.STREAM);
+        long totalBits = 0;
+        for (int i = 0; i < counts.length; i++) 
+        {
+            totalBits += counts[i] * lengths[i];
+        }
+        int padding = (int) (8 - (totalBits % 8));
+
+        try (InputStream in = openInput(); OutputStream file = openOutput(encodedFile)) 
+        {
+            BitOutputStream out = new BitOutputStream(file);
+            out.writeBits(1, padding);
+            writeCodes(in, out, codes, lengths, 0, null);
+            out.flush();
+        } 
+        catch (Exception e) 
+        {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    // Writes the code of every byte of in. If syncInterval is positive, the
+    // bit offset of every syncInterval'th character is stored in syncPoints.
+    private static void writeCodes(InputStream in, BitOutputStream out, long[] codes, int[] lengths,
+            int syncInterval, long[] syncPoints) throws IOException 
+    {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long position = 0;
+        long nextSync = syncInterval > 0 ? 0 : Long.MAX_VALUE;
+        int read;
+        while ((read = in.read(chunk)) != -1) 
         {
-            result[i] = findEncoding(huffmanRoot, "", (char) i);
-            if (result[i].isEmpty()) 
+            // Codes go out in runs up to the next sync point, if it is in
+            // this chunk
+            int i = 0;
+            while (i < read) 
             {
-                result[i] = null;
+                if (position + i == nextSync) 
+                {
+                    syncPoints[(int) (nextSync / syncInterval)] = out.getBitsWritten();
+                    nextSync += syncInterval;
+                }
+                int end = (int) Math.min(read, nextSync - position);
+                out.writeCodes(chunk, i, end - i, codes, lengths);
+                i = end;
             }
+            position += read;
         }
-        encodings = result;
     }
 
-    private String findEncoding(TreeNode ptr, String code, char c) 
+    private InputStream openInput() throws IOException 
+    {
+        return openInput(fileName);
+    }
+
+    private InputStream openInput(String file) throws IOException 
     {
-        if (ptr == null) 
+        // Raw bytes, no charset decoding, so binary files work too
+        if (pipelined) 
         {
-            return "";
+            return new ReadAheadInputStream(file);
         }
-        if (ptr.getLeft() == null && ptr.getRight() == null) 
+        return new FileInputStream(file);
+    }
+
+    private OutputStream openOutput(String file) throws IOException 
+    {
+        if (pipelined) 
         {
-            if (ptr.getData().getCharacter() == c) 
+            return new WriteBehindOutputStream(file);
+        }
+        return new FileOutputStream(file);
+    }
+
+    /**
+     * Sets whether encode, compress, compressOrder1 and decode read and write
+     * files on separate threads (ReadAheadInputStream and
+     * WriteBehindOutputStream), so waiting for slow storage overlaps with
+     * coding. Off by default. The output is the same either way.
+     * 
+     * @param pipelined Whether to read ahead and write behind
+     */
+    public void setPipelined(boolean pipelined) 
+    {
+        this.pipelined = pipelined;
+    }
+
+    private long[] countCharacters(CountMode mode) 
+    {
+        try 
+        {
+            switch (mode) 
             {
-                return code;
+                case MAPPED:
+                    return Histogram.countMapped(fileName);
+                case PARALLEL:
+                    return Histogram.countParallel(fileName);
+                default:
+                    return Histogram.countStream(fileName);
             }
-            return "";
+        } 
+        catch (IOException e) 
+        {
+            System.err.println("Error while reading file!");
+            return new long[ALPHABET_SIZE];
         }
-        String check = findEncoding(ptr.getLeft(), code + "0", c);
-        if (!check.isEmpty()) 
+    }
+
+    /**
+     * Writes a self-describing encoding of the file: a header with the code
+     * length of every character, followed by the canonical codes for those
+     * lengths. Unlike encode, the result can be decoded by decompress without
+     * the original file or this HuffmanCoding object.
+     * 
+     * @param encodedFile The file name into which the text file is to be encoded
+     */
+    public void compress(String encodedFile) 
+    {
+        compress(encodedFile, 0);
+    }
+
+    /**
+     * Same as compress(encodedFile), and if syncInterval is positive, also
+     * writes an index of where the code of every syncInterval'th character
+     * starts, so decodeRange can start decoding close to any offset.
+     * 
+     * The index goes after the codes: the interval, the number of sync
+     * points, the bit offset of each one from the start of the codes, and
+     * last the file offset of the index itself.
+     * 
+     * @param encodedFile  The file name into which the text file is to be encoded
+     * @param syncInterval Characters between sync points, or 0 for no index
+     */
+    public void compress(String encodedFile, int syncInterval) 
+    {
+        try 
+        {
+            writeCompressed(encodedFile, syncInterval);
+        } 
+        catch (Exception e) 
+        {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    // compress without the error message, for callers which need to know
+    // whether it worked, like BatchCompressor
+    void writeCompressed(String encodedFile, int syncInterval) throws IOException 
+    {
+        CodeTable table = CodeTable.canonical(CodeTable.lengthsFromTree(huffmanRoot, ALPHABET_SIZE));
+        long[] counts = frequencies != null ? frequencies : countCharacters(CountMode.STREAM);
+        long characters = 0;
+        for (long count : counts) 
+        {
+            characters += count;
+        }
+
+        try (InputStream in = openInput(); OutputStream file = new BufferedOutputStream(openOutput(encodedFile))) 
         {
-            return check;
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeByte(syncInterval > 0 ? FLAG_SYNC_INDEX : 0);
+            header.writeLong(characters);
+            table.writeLengths(header);
+            header.flush();
+            long codesStart = header.size();
+
+            BitOutputStream out = new BitOutputStream(file);
+            long[] syncPoints = null;
+            if (syncInterval > 0) 
+            {
+                syncPoints = new long[(int) ((characters + syncInterval - 1) / syncInterval)];
+            }
+            writeCodes(in, out, table.getCodes(), table.getLengths(), syncInterval, syncPoints);
+            out.flush();
+
+            if (syncInterval > 0) 
+            {
+                long indexStart = codesStart + out.getBitsWritten() / 8;
+                header.writeInt(syncInterval);
+                header.writeInt(syncPoints.length);
+                for (long syncPoint : syncPoints) 
+                {
+                    header.writeLong(syncPoint);
+                }
+                header.writeLong(indexStart);
+            }
         }
-        return findEncoding(ptr.getRight(), code + "1", c);
     }
 
     /**
-     * Using encodings and filename, this method makes use of the writeBitString
-     * method
-     * to write the final encoding of 1's and 0's to the encoded file.
+     * Same as compress(encodedFile), coding the characters with the given
+     * engine. Both engines use the counts from makeSortedList and the same
+     * header, and decompress reads either. TANS spends less than a bit on a
+     * character which makes up most of the file, where HUFFMAN always
+     * spends at least one.
      * 
      * @param encodedFile The file name into which the text file is to be encoded
+     * @param engine      The entropy coder to use
      */
-    public void encode(String encodedFile) 
+    public void compress(String encodedFile, Engine engine) 
     {
-        StdIn.setFile(fileName);
-        /* Your code goes here */
-        String encodedString = "";
-        while (StdIn.hasNextChar()) 
+        if (engine == Engine.HUFFMAN) 
+        {
+            compress(encodedFile, 0);
+            return;
+        }
+        long[] counts = frequencies != null ? frequencies : countCharacters(CountMode.STREAM);
+        long characters = 0;
+        for (long count : counts) 
         {
-            char c = StdIn.readChar();
-            encodedString += encodings[c] != null ? encodings[c] : "";
+            characters += count;
+        }
+        TansCoder coder = TansCoder.build(counts);
+
+        try (InputStream in = openInput(); OutputStream file = new BufferedOutputStream(openOutput(encodedFile))) 
+        {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeByte(FLAG_TANS);
+            header.writeLong(characters);
+            coder.write(header);
+            header.flush();
+
+            BitOutputStream out = new BitOutputStream(file);
+            coder.encode(in, out);
+            out.flush();
+        } 
+        catch (Exception e) 
+        {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    /**
+     * Same as compress(encodedFile), but each character is coded with a
+     * table chosen by the character before it, see ContextModel. This needs
+     * its own pass over the file to count pairs of characters, and the
+     * header is bigger, so it pays off on text rather than on small or
+     * random files. The result is decoded by decompress.
+     * 
+     * @param encodedFile The file name into which the text file is to be encoded
+     */
+    public void compressOrder1(String encodedFile) 
+    {
+        try (InputStream counted = openInput(); InputStream in = openInput()) 
+        {
+            long[][] pairs = ContextModel.countPairs(counted);
+            long characters = 0;
+            for (long[] context : pairs) 
+            {
+                for (long count : context) 
+                {
+                    characters += count;
+                }
+            }
+            ContextModel model = ContextModel.build(pairs);
+
+            try (OutputStream file = new BufferedOutputStream(openOutput(encodedFile))) 
+            {
+                DataOutputStream header = new DataOutputStream(file);
+                header.writeInt(MAGIC);
+                header.writeByte(FLAG_ORDER1);
+                header.writeLong(characters);
+                model.write(header);
+                header.flush();
+
+                BitOutputStream out = new BitOutputStream(file);
+                model.encode(in, out);
+                out.flush();
+            }
+        } 
+        catch (Exception e) 
+        {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    /**
+     * Decodes a file written by compress or compressOrder1, with either
+     * engine, rebuilding the codes from its header
+     * 
+     * @param encodedFile The file which has already been encoded by compress()
+     * @param decodedFile The name of the new file we want to decode into
+     */
+    public static void decompress(String encodedFile, String decodedFile) 
+    {
+        try 
+        {
+            readCompressed(encodedFile, decodedFile);
+        } 
+        catch (IOException e) 
+        {
+            System.err.println("Error while reading file!");
+        }
+    }
+
+    // decompress without the error message. The decoded file is only
+    // created once the header has been read, so a file which is not
+    // compressed leaves nothing behind.
+    static void readCompressed(String encodedFile, String decodedFile) throws IOException 
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(encodedFile)))) 
+        {
+            if (in.readInt() != MAGIC) 
+            {
+                throw new IOException("Not a compressed file");
+            }
+            int flags = in.readUnsignedByte();
+            long characters = in.readLong();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(decodedFile), CHUNK_SIZE)) 
+            {
+                if ((flags & FLAG_ORDER1) != 0) 
+                {
+                    ContextModel.read(in).decode(new BitInputStream(in), characters, out);
+                    return;
+                }
+                if ((flags & FLAG_TANS) != 0) 
+                {
+                    TansCoder.read(in).decode(new BitInputStream(in), characters, out);
+                    return;
+                }
+                CodeTable table = CodeTable.readLengths(in, ALPHABET_SIZE);
+                new DecodeTable(table.toTree()).decode(new BitInputStream(in), characters, out);
+            }
+        }
+    }
+
+    /**
+     * Decodes only the characters [offset, offset + length) of a file written
+     * by compress. If it has a sync point index, decoding starts at the last
+     * sync point before offset, otherwise at the beginning.
+     * 
+     * @param encodedFile The file which has already been encoded by compress()
+     * @param offset      The first character to decode
+     * @param length      The most characters to decode
+     * @return The decoded characters, fewer than length if the file ends
+     *         first, and none if offset is past its end. A file which cannot
+     *         be read or was not written by compress is an IOException.
+     */
+    public static byte[] decodeRange(String encodedFile, long offset, int length) throws IOException 
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ)) 
+        {
+            // Not buffered, so the channel's position is where the codes start
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != MAGIC) 
+            {
+                throw new IOException("Not a compressed file");
+            }
+            int flags = in.readUnsignedByte();
+            if ((flags & FLAG_ORDER1) != 0) 
+            {
+                throw new IOException("Order-1 files can only be decoded from the start");
+            }
+            if ((flags & FLAG_TANS) != 0) 
+            {
+                throw new IOException("tANS files can only be decoded from the start");
+            }
+            long characters = in.readLong();
+            CodeTable table = CodeTable.readLengths(in, ALPHABET_SIZE);
+            long codesStart = channel.position();
+            if (offset < 0 || length < 0 || offset >= characters) 
+            {
+                return new byte[0];
+            }
+            length = (int) Math.min(length, characters - offset);
+
+            // Find the closest sync point at or before offset
+            long syncCharacter = 0;
+            long syncBit = 0;
+            if ((flags & FLAG_SYNC_INDEX) != 0) 
+            {
+                long indexStart = readLong(channel, channel.size() - 8);
+                ByteBuffer index = ByteBuffer.allocate(8);
+                readFully(channel, index, indexStart);
+                int syncInterval = index.getInt(0);
+                int syncPoints = index.getInt(4);
+                if (syncInterval <= 0 || offset / syncInterval >= syncPoints) 
+                {
+                    throw new IOException("Invalid sync point index");
+                }
+                int syncPoint = (int) (offset / syncInterval);
+                syncCharacter = (long) syncPoint * syncInterval;
+                syncBit = readLong(channel, indexStart + 8 + 8L * syncPoint);
+            }
+
+            // Decode from the sync point straight off the file, keeping only
+            // the characters from offset on, so memory use does not depend
+            // on how far offset is from the sync point
+            long skip = offset - syncCharacter;
+            channel.position(codesStart + syncBit / 8);
+            BitInputStream bits = new BitInputStream(Channels.newInputStream(channel));
+            bits.skipBits((int) (syncBit % 8));
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream(length);
+            new DecodeTable(table.toTree()).decode(bits, skip + length, new SkippingOutputStream(decoded, skip));
+            return decoded.toByteArray();
+        }
+    }
+
+    // Drops the first skip bytes written to it and passes on the rest
+    private static class SkippingOutputStream extends OutputStream 
+    {
+        private OutputStream out;
+        private long skip;
+
+        SkippingOutputStream(OutputStream out, long skip) 
+        {
+            this.out = out;
+            this.skip = skip;
+        }
+
+        @Override
+        public void write(int b) throws IOException 
+        {
+            if (skip > 0) 
+            {
+                skip--;
+            } 
+            else 
+            {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException 
+        {
+            int skipped = (int) Math.min(skip, len);
+            skip -= skipped;
+            out.write(b, off + skipped, len - skipped);
+        }
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException 
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        readFully(channel, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException 
+    {
+        while (buffer.hasRemaining()) 
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0) 
+            {
+                throw new IOException("Unexpected end of file");
+            }
         }
-        writeBitString(encodedFile, encodedString);
     }
 
     /**
@@ -228,37 +715,85 @@ public class HuffmanCoding {
     }
 
     /**
-     * Using a given encoded file name, this method makes use of the readBitString
-     * method
-     * to convert the file into a bit string, then decodes the bit string using the
-     * tree, and writes it to a decoded file.
+     * Using a given encoded file name, this method reads the file a bit at a
+     * time through a BitInputStream, decodes the bits using the tree, and
+     * writes it to a decoded file. Memory use does not depend on the file size.
      * 
      * @param encodedFile The file which has already been encoded by encode()
      * @param decodedFile The name of the new file we want to decode into
      */
     public void decode(String encodedFile, String decodedFile) 
     {
-        String bitString = readBitString(encodedFile);
-        StdOut.setFile(decodedFile);
-        TreeNode ptr = huffmanRoot;
-        for (int i = 0; i < bitString.length(); i++) 
+        decode(encodedFile, decodedFile, DecodeMode.TREE);
+    }
+
+    /**
+     * Decodes encodedFile into decodedFile using the given mode. Every mode
+     * produces the same output.
+     * 
+     * @param encodedFile The file which has already been encoded by encode()
+     * @param decodedFile The name of the new file we want to decode into
+     * @param mode        How to turn the bits back into characters
+     */
+    public void decode(String encodedFile, String decodedFile, DecodeMode mode) 
+    {
+        if (mode != DecodeMode.TREE) 
         {
-            char c = bitString.charAt(i);
-            if (c == '0') 
-            {
-                ptr = ptr.getLeft();
-            } 
-            else if (c == '1') 
+            decodeWithTable(encodedFile, decodedFile, mode);
+            return;
+        }
+        // Characters are bytes, so write them as bytes rather than through
+        // StdOut, which would charset-encode anything above 127
+        try (BitInputStream in = new BitInputStream(openInput(encodedFile));
+                OutputStream out = new BufferedOutputStream(openOutput(decodedFile), CHUNK_SIZE)) 
+        {
+            in.skipPadding();
+            TreeNode ptr = huffmanRoot;
+            int bit;
+            while ((bit = in.readBit()) != -1) 
             {
-                ptr = ptr.getRight();
+                if (bit == 0) 
+                {
+                    ptr = ptr.getLeft();
+                } 
+                else 
+                {
+                    ptr = ptr.getRight();
+                }
+                if (ptr.getLeft() == null && ptr.getRight() == null) 
+                {
+                    out.write(ptr.getData().getCharacter());
+                    ptr = huffmanRoot;
+                }
             }
-            if (ptr.getLeft() == null && ptr.getRight() == null) 
+        } 
+        catch (IOException e) 
+        {
+            System.err.println("Error when writing to file!");
+        }
+        /* Your code goes here */
+    }
+
+    private void decodeWithTable(String encodedFile, String decodedFile, DecodeMode mode) 
+    {
+        try (BitInputStream in = new BitInputStream(openInput(encodedFile));
+                OutputStream out = openOutput(decodedFile)) 
+        {
+            in.skipPadding();
+            DecodeTable table = new DecodeTable(huffmanRoot);
+            if (mode == DecodeMode.MULTI_SYMBOL) 
             {
-                StdOut.print(ptr.getData().getCharacter());
-                ptr = huffmanRoot;
+                new MultiSymbolDecodeTable(table).decode(in, Long.MAX_VALUE, out);
+            } 
+            else 
+            {
+                table.decode(in, Long.MAX_VALUE, out);
             }
+        } 
+        catch (IOException e) 
+        {
+            System.err.println("Error while reading file!");
         }
-        /* Your code goes here */
     }
 
     /**
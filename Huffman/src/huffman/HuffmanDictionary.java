@@ -0,0 +1,202 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * This class is a code table trained ahead of time on a sample of the
+ * data, for records too small to carry their own table. Every record is
+ * coded with the same table, so there is no counting or tree building per
+ * record, and its header is only the table's ID and the record's length.
+ *
+ * Every byte value gets a code, even ones the sample never had, by adding
+ * one to every count before building the table.
+ *
+ * A saved dictionary is the magic number "HUFD", its ID and its code
+ * lengths. A record is the ID, the length as a varint (7 bits per byte,
+ * low bits first) and the codes, zero padded to a whole byte.
+ */
+public class HuffmanDictionary {
+    // Short enough that one DecodeTable level covers most codes
+    private static final int MAX_CODE_LENGTH = 15;
+
+    private static final int MAGIC = 0x48554644;
+
+    private int id;
+    private long[] codes;
+    private int[] lengths;
+    private DecodeTable decodeTable;
+
+    private HuffmanDictionary(CodeTable table) {
+        codes = table.getCodes();
+        lengths = table.getLengths();
+        decodeTable = new DecodeTable(table.toTree());
+
+        // The ID is a checksum of the code lengths, which are the whole table
+        CRC32 crc = new CRC32();
+        for (int length : lengths) crc.update(length);
+        id = (int) crc.getValue();
+    }
+
+    /**
+     * Builds a dictionary from the byte counts of a sample corpus
+     *
+     * @param files The sample files, e.g. input1.txt through input6.txt
+     * @return The dictionary
+     */
+    public static HuffmanDictionary train(String... files) throws IOException {
+        long[] counts = new long[Histogram.ALPHABET_SIZE];
+        for (String file : files) {
+            long[] fileCounts = Histogram.countStream(file);
+            for (int c = 0; c < counts.length; c++) counts[c] += fileCounts[c];
+        }
+        return train(counts);
+    }
+
+    /**
+     * @param counts Array where index i is the count of byte i in the sample
+     * @return The dictionary
+     */
+    public static HuffmanDictionary train(long[] counts) {
+        if (counts.length != Histogram.ALPHABET_SIZE) {
+            throw new IllegalArgumentException("Expected " + Histogram.ALPHABET_SIZE + " counts");
+        }
+        long[] smoothed = new long[counts.length];
+        for (int c = 0; c < counts.length; c++) smoothed[c] = counts[c] + 1;
+        return new HuffmanDictionary(CodeTable.limited(smoothed, MAX_CODE_LENGTH));
+    }
+
+    public int getId() { return id; }
+
+    /**
+     * @return The dictionary's codes, e.g. for a ByteBufferCodec
+     */
+    public CodeTable getCodeTable() {
+        return CodeTable.canonical(lengths);
+    }
+
+    /**
+     * @param file The file to write the dictionary to
+     */
+    public void save(String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(id);
+            CodeTable.canonical(lengths).writeLengths(out);
+        }
+    }
+
+    /**
+     * @param file A file written by save
+     * @return The dictionary
+     */
+    public static HuffmanDictionary load(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a dictionary file");
+            int id = in.readInt();
+            HuffmanDictionary dictionary = new HuffmanDictionary(CodeTable.readLengths(in, Histogram.ALPHABET_SIZE));
+            if (dictionary.id != id) throw new IOException("Dictionary does not match its ID");
+            return dictionary;
+        }
+    }
+
+    /**
+     * @param record A record written by encode
+     * @return The ID of the dictionary it was encoded with
+     */
+    public static int readId(byte[] record) {
+        if (record.length < 4) throw new IllegalArgumentException("Record is too short");
+        return ByteBuffer.wrap(record).getInt();
+    }
+
+    public byte[] encode(byte[] record) {
+        return encode(record, 0, record.length);
+    }
+
+    /**
+     * Encodes bytes [offset, offset + length) of record
+     *
+     * @param record The bytes to encode
+     * @param offset The first byte
+     * @param length The number of bytes
+     * @return The ID, the length and the codes
+     */
+    public byte[] encode(byte[] record, int offset, int length) {
+        long bits = 0;
+        for (int i = offset; i < offset + length; i++) bits += lengths[record[i] & 0xFF];
+        int headerSize = 4 + varintSize(length);
+        byte[] encoded = new byte[headerSize + (int) ((bits + 7) / 8)];
+
+        ByteBuffer header = ByteBuffer.wrap(encoded);
+        header.putInt(id);
+        for (int n = length; ; n >>>= 7) {
+            if (n < 0x80) {
+                header.put((byte) n);
+                break;
+            }
+            header.put((byte) (n & 0x7F | 0x80));
+        }
+
+        // Pack codes most significant bit first through a 64 bit register.
+        // Codes are at most 15 bits, so at most 22 bits are ever pending.
+        int position = headerSize;
+        long bitBuffer = 0;
+        int bitCount = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int c = record[i] & 0xFF;
+            bitBuffer = (bitBuffer << lengths[c]) | codes[c];
+            bitCount += lengths[c];
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                encoded[position++] = (byte) (bitBuffer >>> bitCount);
+            }
+        }
+        if (bitCount > 0) encoded[position] = (byte) (bitBuffer << (8 - bitCount));
+        return encoded;
+    }
+
+    /**
+     * Decodes a record written by encode with this dictionary
+     *
+     * @param record The encoded record
+     * @return The original bytes
+     */
+    public byte[] decode(byte[] record) throws IOException {
+        if (record.length < 5) throw new IOException("Record is too short");
+        ByteBuffer in = ByteBuffer.wrap(record);
+        int recordId = in.getInt();
+        if (recordId != id) {
+            throw new IOException("Record was encoded with dictionary " + Integer.toHexString(recordId));
+        }
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!in.hasRemaining() || shift > 28) throw new IOException("Invalid record length");
+            int b = in.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (length < 0) throw new IOException("Invalid record length");
+
+        byte[] decoded = new byte[length];
+        BitInputStream bits = new BitInputStream(in);
+        for (int i = 0; i < length; i++) {
+            int c = decodeTable.decodeOne(bits);
+            if (c < 0) throw new IOException("Record ended early");
+            decoded[i] = (byte) c;
+        }
+        return decoded;
+    }
+
+    private static int varintSize(int n) {
+        int size = 1;
+        while ((n >>>= 7) != 0) size++;
+        return size;
+    }
+}
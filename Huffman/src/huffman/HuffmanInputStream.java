@@ -0,0 +1,109 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class decompresses a stream written by HuffmanOutputStream one block
+ * at a time, so only one block is held in memory however long the stream is.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+    private DataInputStream data;
+    private int streams;
+    private byte[] block = new byte[0];
+    private int position;
+    private boolean started;
+    private boolean ended;
+
+    /**
+     * @param in The stream written by HuffmanOutputStream
+     */
+    public HuffmanInputStream(InputStream in) {
+        super(in);
+        data = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == block.length && !nextBlock()) return -1;
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (position == block.length && !nextBlock()) return -1;
+        int n = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (position == block.length && !nextBlock()) break;
+            int step = (int) Math.min(n - skipped, block.length - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return The number of decoded bytes left in the current block
+     */
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // Decodes the next block, false at the end of the stream
+    private boolean nextBlock() throws IOException {
+        if (ended) return false;
+        try {
+            if (!started) {
+                started = true;
+                if (data.readInt() != HuffmanOutputStream.MAGIC) {
+                    throw new IOException("Not a huffman stream");
+                }
+                streams = data.readUnsignedByte();
+                if (streams < 1 || streams > BlockCompressor.MAX_STREAMS) throw new IOException("Invalid number of streams");
+            }
+
+            int decodedSize = data.readInt();
+            if (decodedSize == 0) {
+                ended = true;
+                return false;
+            }
+            int encodedSize = data.readInt();
+            if (decodedSize < 0 || encodedSize < 0) throw new IOException("Invalid block size");
+            byte[] encoded = new byte[encodedSize];
+            data.readFully(encoded);
+            block = BlockCompressor.decodeBlock(encoded, decodedSize, streams);
+            position = 0;
+            return true;
+        } catch (EOFException e) {
+            throw new IOException("Stream ended before its end marker", e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package huffman;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class compresses everything written to it, so huffman coding can
+ * sit in a chain of streams without a temporary file. Bytes are collected
+ * in a buffer, and each full buffer is encoded as a block with its own
+ * code lengths by BlockCompressor.encodeBlock. flush encodes whatever is
+ * buffered as a shorter block, so it costs some compression.
+ *
+ * The stream starts with the magic number "HUFS" and the number of
+ * interleaved streams per block. Each block is its original size, its
+ * encoded size and the encoded bytes, and a size of 0 ends the stream.
+ * HuffmanInputStream reads it back.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    static final int MAGIC = 0x48554653;
+
+    private DataOutputStream data;
+    private byte[] buffer;
+    private int count;
+    private boolean started;
+    private boolean closed;
+
+    public HuffmanOutputStream(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out        The stream to write the encoding to
+     * @param bufferSize The number of bytes in every block but the last
+     */
+    public HuffmanOutputStream(OutputStream out, int bufferSize) {
+        super(out);
+        if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive");
+        data = new DataOutputStream(out);
+        buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[count++] = (byte) b;
+        if (count == buffer.length) writeBlock();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) writeBlock();
+        }
+    }
+
+    /**
+     * Encodes the buffered bytes as a block and flushes the stream below
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Encodes the buffered bytes, ends the stream and closes the stream below
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            writeBlock();
+            start();
+            data.writeInt(0);
+            data.flush();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        start();
+        if (count == 0) return;
+        byte[] encoded = BlockCompressor.encodeBlock(buffer, 0, count, BlockCompressor.INTERLEAVED_STREAMS);
+        data.writeInt(count);
+        data.writeInt(encoded.length);
+        data.write(encoded);
+        count = 0;
+    }
+
+    private void start() throws IOException {
+        if (started) return;
+        started = true;
+        data.writeInt(MAGIC);
+        data.writeByte(BlockCompressor.INTERLEAVED_STREAMS);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+}
@@ -0,0 +1,173 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class checks the faster counting and packing kernels against the
+ * plain loops they replace: both Histogram.count kernels, for arrays and
+ * for direct buffers, against Histogram.countScalar, and
+ * BitOutputStream.writeCodes against one writeBits call per byte. Each
+ * input is checked at every alignment and split into runs of random
+ * length, with the code table of its own counts and with random tables,
+ * some of which have codes longer than 32 bits. It also prints how long
+ * each path took.
+ */
+public class KernelCheck {
+    private static final int ROUNDS = 20;
+
+    private Random random = new Random(1);
+    private int failures;
+
+    /**
+     * Checks each file named on the command line, or random inputs if
+     * there are none. Exits with status 1 if any check fails.
+     */
+    public static void main(String[] args) throws IOException {
+        KernelCheck check = new KernelCheck();
+        if (args.length == 0) {
+            for (int size : new int[] { 0, 1, 7, 8, 9, 1000, 1 << 20 }) {
+                byte[] bytes = new byte[size];
+                check.random.nextBytes(bytes);
+                // Skew half of them so that code lengths differ
+                if (size % 2 == 0) for (int i = 0; i < size; i++) bytes[i] &= check.random.nextInt(256);
+                check.check("random " + size, bytes);
+            }
+        }
+        for (String file : args) {
+            check.check(file, Files.readAllBytes(Paths.get(file)));
+        }
+        if (check.failures > 0) {
+            System.out.println(check.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    private void check(String name, byte[] bytes) throws IOException {
+        boolean same = true;
+        for (int offset = 0; offset < Math.min(8, bytes.length + 1); offset++) {
+            long[] scalar = new long[Histogram.ALPHABET_SIZE];
+            long[] array = new long[Histogram.ALPHABET_SIZE];
+            long[] direct = new long[Histogram.ALPHABET_SIZE];
+            Histogram.countScalar(ByteBuffer.wrap(bytes, offset, bytes.length - offset), scalar);
+            Histogram.count(bytes, offset, bytes.length - offset, array);
+            Histogram.count(directCopy(bytes, offset), direct);
+            same &= Arrays.equals(array, scalar) && Arrays.equals(direct, scalar);
+        }
+        report(name, "histogram", same);
+
+        long[] counts = new long[Histogram.ALPHABET_SIZE];
+        Histogram.countScalar(ByteBuffer.wrap(bytes), counts);
+        same = matches(bytes, CodeTable.canonical(TreeBuilder.codeLengths(counts)));
+        for (int round = 0; round < ROUNDS; round++) {
+            same &= matches(bytes, randomTable(round % 2 == 1));
+        }
+        report(name, "packing", same);
+
+        time(name, bytes, CodeTable.canonical(TreeBuilder.codeLengths(counts)));
+    }
+
+    // Copies bytes into a direct buffer positioned at offset, so count
+    // takes its word at a time path
+    private static ByteBuffer directCopy(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).position(offset);
+        return buffer;
+    }
+
+    // Writes bytes both ways after a random number of leading bits, with
+    // writeCodes given runs of random length
+    private boolean matches(byte[] bytes, CodeTable table) throws IOException {
+        long[] codes = table.getCodes();
+        int[] lengths = table.getLengths();
+        int lead = random.nextInt(8);
+        int bufferSize = 4 + random.nextInt(64);
+
+        ByteArrayOutputStream scalarBytes = new ByteArrayOutputStream();
+        BitOutputStream scalar = new BitOutputStream(scalarBytes, bufferSize);
+        scalar.writeBits(0x55, lead);
+        for (byte b : bytes) scalar.writeBits(codes[b & 0xFF], lengths[b & 0xFF]);
+        long scalarBits = scalar.getBitsWritten();
+        scalar.flush();
+
+        ByteArrayOutputStream wordBytes = new ByteArrayOutputStream();
+        BitOutputStream word = new BitOutputStream(wordBytes, bufferSize);
+        word.writeBits(0x55, lead);
+        for (int i = 0; i < bytes.length;) {
+            int run = Math.min(bytes.length - i, 1 + random.nextInt(300));
+            word.writeCodes(bytes, i, run, codes, lengths);
+            i += run;
+        }
+        long wordBits = word.getBitsWritten();
+        word.flush();
+
+        return scalarBits == wordBits && Arrays.equals(scalarBytes.toByteArray(), wordBytes.toByteArray());
+    }
+
+    // Random counts for every byte, or for long codes counts which grow
+    // like the Fibonacci numbers, so the rarest bytes get very long codes
+    private CodeTable randomTable(boolean longCodes) {
+        long[] counts = new long[Histogram.ALPHABET_SIZE];
+        long a = 1, b = 1;
+        for (int c = 0; c < counts.length; c++) {
+            if (!longCodes) {
+                counts[c] = random.nextInt(1000);
+            } else if (c < 60) {
+                counts[c] = a;
+                b += a;
+                a = b - a;
+            }
+        }
+        return CodeTable.canonical(TreeBuilder.codeLengths(counts));
+    }
+
+    private void time(String name, byte[] bytes, CodeTable table) throws IOException {
+        if (bytes.length < 1 << 16) return;
+        long[] codes = table.getCodes();
+        int[] lengths = table.getLengths();
+        long[] counts = new long[Histogram.ALPHABET_SIZE];
+
+        ByteBuffer direct = directCopy(bytes, 0);
+        long[] nanos = new long[5];
+        // The first half of the rounds only warms up the JIT
+        for (int round = -ROUNDS; round < ROUNDS; round++) {
+            if (round == 0) Arrays.fill(nanos, 0);
+            long start = System.nanoTime();
+            Histogram.countScalar(ByteBuffer.wrap(bytes), counts);
+            nanos[0] += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Histogram.count(bytes, 0, bytes.length, counts);
+            nanos[1] += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Histogram.count(direct, counts);
+            nanos[4] += System.nanoTime() - start;
+
+            BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+            start = System.nanoTime();
+            for (byte b : bytes) out.writeBits(codes[b & 0xFF], lengths[b & 0xFF]);
+            nanos[2] += System.nanoTime() - start;
+
+            out = new BitOutputStream(OutputStream.nullOutputStream());
+            start = System.nanoTime();
+            out.writeCodes(bytes, 0, bytes.length, codes, lengths);
+            nanos[3] += System.nanoTime() - start;
+        }
+        double megabytes = (double) bytes.length * ROUNDS / (1 << 20);
+        System.out.printf("%s: histogram %.0f -> %.0f (direct %.0f) MB/s, packing %.0f -> %.0f MB/s%n", name,
+                megabytes / (nanos[0] / 1e9), megabytes / (nanos[1] / 1e9), megabytes / (nanos[4] / 1e9),
+                megabytes / (nanos[2] / 1e9), megabytes / (nanos[3] / 1e9));
+    }
+
+    private void report(String name, String kernel, boolean same) {
+        if (!same) failures++;
+        System.out.println(name + ": " + kernel + (same ? " matches" : " DIFFERS"));
+    }
+}
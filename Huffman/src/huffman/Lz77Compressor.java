@@ -0,0 +1,375 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class replaces repeated text with (length, distance) references to
+ * the last 32KB of input before huffman coding, the same way DEFLATE does.
+ * Matches are found with hash chains: every position is linked to the
+ * previous positions whose next 3 bytes hash the same, and the chain is
+ * searched for the longest match. The level trades speed for ratio by how
+ * far each chain is searched and whether lazy matching is used.
+ *
+ * The file starts with the magic number "HUFL" and the original length,
+ * followed by blocks of up to BLOCK_SIZE input bytes. Each block is a bit
+ * saying whether it is the last one, the 4 bit code lengths of the 286
+ * literal/length symbols and the 30 distance symbols, then the codes of its
+ * literals and matches and last the end of block symbol. A match is a
+ * length symbol and a distance symbol, each followed by extra bits, as in
+ * DEFLATE (RFC 1951).
+ */
+public class Lz77Compressor {
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int MAX_LEVEL = 9;
+
+    private static final int MAGIC = 0x4855464C;
+
+    private static final int WINDOW_SIZE = 1 << 15;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int BLOCK_SIZE = 1 << 17;
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+
+    private static final int HASH_BITS = 15;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int LENGTH_BITS = 4;
+    private static final int END_OF_BLOCK = 256;
+    private static final int LITERAL_LENGTH_SYMBOLS = 286;
+    private static final int DISTANCE_SYMBOLS = 30;
+
+    // The shortest length or distance of each symbol and its extra bits
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+    };
+    private static final int[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    // For each level, how many chain entries to search, the match length
+    // which is good enough to stop searching, and whether to match lazily.
+    // Level 0 only writes literals, which is plain huffman coding.
+    private static final int[] MAX_CHAIN = { 0, 4, 8, 16, 32, 64, 128, 256, 1024, 4096 };
+    private static final int[] NICE_LENGTH = { 0, 8, 16, 32, 64, 128, 258, 258, 258, 258 };
+    private static final int LAZY_LEVEL = 4;
+
+    private int level;
+
+    // The hash chains: the last position with each hash, and for each
+    // position in the window the one before it with the same hash
+    private int[] head = new int[HASH_SIZE];
+    private int[] prev = new int[WINDOW_SIZE];
+
+    // Set by findMatch
+    private int matchLength;
+    private int matchDistance;
+
+    public Lz77Compressor() {
+        this(DEFAULT_LEVEL);
+    }
+
+    /**
+     * @param level 0 for no matches, up to MAX_LEVEL for the slowest and
+     *              smallest output. Only used by compress.
+     */
+    public Lz77Compressor(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Level must be between 0 and " + MAX_LEVEL);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Compresses inputFile into encodedFile
+     *
+     * @param inputFile   The file to compress
+     * @param encodedFile The file to write the encoding to
+     */
+    public void compress(String inputFile, String encodedFile) throws IOException {
+        try (InputStream in = new FileInputStream(inputFile);
+                DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(encodedFile)))) {
+            file.writeInt(MAGIC);
+            file.writeLong(new File(inputFile).length());
+            BitOutputStream out = new BitOutputStream(file);
+
+            Arrays.fill(head, -1);
+            Arrays.fill(prev, -1);
+
+            // The window of already coded bytes, followed by the block
+            byte[] buffer = new byte[WINDOW_SIZE + BLOCK_SIZE];
+            int[] lengths = new int[buffer.length];
+            int[] values = new int[buffer.length];
+            int start = 0;
+            boolean last = false;
+            while (!last) {
+                // At most BLOCK_SIZE new bytes, also in the first block, which
+                // has no window in front of it yet
+                int limit = start + BLOCK_SIZE;
+                int end = start;
+                while (end < limit) {
+                    int read = in.read(buffer, end, limit - end);
+                    if (read < 0) break;
+                    end += read;
+                }
+                last = end < limit;
+
+                int tokens = findMatches(buffer, start, end, lengths, values);
+                writeBlock(out, buffer, lengths, values, tokens, last);
+
+                // Keep the last WINDOW_SIZE bytes for the next block
+                int shift = Math.max(0, end - WINDOW_SIZE);
+                System.arraycopy(buffer, shift, buffer, 0, end - shift);
+                slide(shift);
+                start = end - shift;
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Decodes a file written by compress
+     *
+     * @param encodedFile The file written by compress
+     * @param decodedFile The file to write the original bytes to
+     */
+    public void decompress(String encodedFile, String decodedFile) throws IOException {
+        try (DataInputStream file = new DataInputStream(new BufferedInputStream(new FileInputStream(encodedFile)));
+                OutputStream out = new FileOutputStream(decodedFile)) {
+            if (file.readInt() != MAGIC) {
+                throw new IOException("Not an LZ77 compressed file");
+            }
+            long length = file.readLong();
+            BitInputStream in = new BitInputStream(file);
+
+            // Decoded bytes stay in the buffer until they are written, and
+            // the last WINDOW_SIZE of them stay for later matches
+            byte[] buffer = new byte[4 * WINDOW_SIZE];
+            int position = 0;
+            int written = 0;
+            long total = 0;
+            boolean last = false;
+            while (!last) {
+                last = in.readBits(1) == 1;
+                DecodeTable literalLengths = readTable(in, LITERAL_LENGTH_SYMBOLS);
+                DecodeTable distances = readTable(in, DISTANCE_SYMBOLS);
+                if (literalLengths == null) throw new IOException("Block has no end");
+
+                while (true) {
+                    if (position + MAX_MATCH > buffer.length) {
+                        out.write(buffer, written, position - written);
+                        System.arraycopy(buffer, position - WINDOW_SIZE, buffer, 0, WINDOW_SIZE);
+                        position = WINDOW_SIZE;
+                        written = WINDOW_SIZE;
+                    }
+
+                    int symbol = decodeSymbol(literalLengths, in);
+                    if (symbol < END_OF_BLOCK) {
+                        buffer[position++] = (byte) symbol;
+                        total++;
+                        continue;
+                    }
+                    if (symbol == END_OF_BLOCK) break;
+
+                    int lengthSymbol = symbol - END_OF_BLOCK - 1;
+                    if (lengthSymbol >= LENGTH_BASE.length || distances == null) {
+                        throw new IOException("Invalid match");
+                    }
+                    int matchLength = LENGTH_BASE[lengthSymbol] + in.readBits(LENGTH_EXTRA[lengthSymbol]);
+                    int distanceSymbol = decodeSymbol(distances, in);
+                    if (distanceSymbol >= DISTANCE_BASE.length) throw new IOException("Invalid match");
+                    int distance = DISTANCE_BASE[distanceSymbol] + in.readBits(DISTANCE_EXTRA[distanceSymbol]);
+                    if (distance > position) throw new IOException("Match before the start of the file");
+
+                    // Byte by byte, since a match may overlap itself
+                    for (int i = 0; i < matchLength; i++) {
+                        buffer[position] = buffer[position - distance];
+                        position++;
+                    }
+                    total += matchLength;
+                }
+            }
+            out.write(buffer, written, position - written);
+            if (total != length) throw new IOException("Decoded " + total + " of " + length + " bytes");
+        }
+    }
+
+    // Splits buffer[start, end) into literals and matches. For token i,
+    // lengths[i] is 0 and values[i] the byte for a literal, otherwise they
+    // are the match length and distance. Returns the number of tokens.
+    private int findMatches(byte[] buffer, int start, int end, int[] lengths, int[] values) {
+        int tokens = 0;
+        int position = start;
+        boolean lazy = level >= LAZY_LEVEL;
+        while (position < end) {
+            findMatch(buffer, position, end);
+            insert(buffer, position, end);
+            if (matchLength >= MIN_MATCH && lazy && matchLength < NICE_LENGTH[level] && position + 1 < end) {
+                // If the next position has a longer match, this one is
+                // better as a literal
+                int length = matchLength, distance = matchDistance;
+                findMatch(buffer, position + 1, end);
+                if (matchLength > length) {
+                    lengths[tokens] = 0;
+                    values[tokens++] = buffer[position++] & 0xFF;
+                    continue;
+                }
+                matchLength = length;
+                matchDistance = distance;
+            }
+
+            if (matchLength >= MIN_MATCH) {
+                lengths[tokens] = matchLength;
+                values[tokens++] = matchDistance;
+                for (int i = 1; i < matchLength; i++) insert(buffer, position + i, end);
+                position += matchLength;
+            } else {
+                lengths[tokens] = 0;
+                values[tokens++] = buffer[position++] & 0xFF;
+            }
+        }
+        return tokens;
+    }
+
+    // Searches the hash chain of position for the longest match, which
+    // can not reach past end
+    private void findMatch(byte[] buffer, int position, int end) {
+        matchLength = 0;
+        matchDistance = 0;
+        int limit = Math.min(MAX_MATCH, end - position);
+        if (level == 0 || limit < MIN_MATCH) return;
+
+        int candidate = head[hash(buffer, position)];
+        int oldest = position - WINDOW_SIZE;
+        for (int chain = MAX_CHAIN[level]; chain > 0 && candidate > oldest && candidate >= 0; chain--) {
+            // Check the byte which would make this match longer first
+            if (buffer[candidate + matchLength] == buffer[position + matchLength] || matchLength == 0) {
+                int length = 0;
+                while (length < limit && buffer[candidate + length] == buffer[position + length]) length++;
+                if (length > matchLength) {
+                    matchLength = length;
+                    matchDistance = position - candidate;
+                    if (length >= NICE_LENGTH[level] || length == limit) break;
+                }
+            }
+            int next = prev[candidate & WINDOW_MASK];
+            if (next >= candidate) break;
+            candidate = next;
+        }
+    }
+
+    private void insert(byte[] buffer, int position, int end) {
+        if (level == 0 || position + MIN_MATCH > end) return;
+        int h = hash(buffer, position);
+        prev[position & WINDOW_MASK] = head[h];
+        head[h] = position;
+    }
+
+    private static int hash(byte[] buffer, int position) {
+        int bytes = (buffer[position] & 0xFF) << 16 | (buffer[position + 1] & 0xFF) << 8 | (buffer[position + 2] & 0xFF);
+        return (bytes * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    // Moves every chain position back by shift after the buffer has been
+    // moved, dropping the ones which fall off the front
+    private void slide(int shift) {
+        if (shift == 0) return;
+        for (int i = 0; i < HASH_SIZE; i++) head[i] = head[i] >= shift ? head[i] - shift : -1;
+
+        // prev is indexed by position, so it has to be rotated too
+        int[] moved = new int[WINDOW_SIZE];
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            int entry = prev[(i + shift) & WINDOW_MASK];
+            moved[i] = entry >= shift ? entry - shift : -1;
+        }
+        prev = moved;
+    }
+
+    private void writeBlock(BitOutputStream out, byte[] buffer, int[] lengths, int[] values, int tokens,
+            boolean last) throws IOException {
+        long[] literalCounts = new long[LITERAL_LENGTH_SYMBOLS];
+        long[] distanceCounts = new long[DISTANCE_SYMBOLS];
+        for (int i = 0; i < tokens; i++) {
+            if (lengths[i] == 0) {
+                literalCounts[values[i]]++;
+            } else {
+                literalCounts[END_OF_BLOCK + 1 + lengthSymbol(lengths[i])]++;
+                distanceCounts[distanceSymbol(values[i])]++;
+            }
+        }
+        literalCounts[END_OF_BLOCK]++;
+        CodeTable literalTable = CodeTable.limited(literalCounts, MAX_CODE_LENGTH);
+        CodeTable distanceTable = CodeTable.limited(distanceCounts, MAX_CODE_LENGTH);
+
+        out.writeBits(last ? 1 : 0, 1);
+        for (int length : literalTable.getLengths()) out.writeBits(length, LENGTH_BITS);
+        for (int length : distanceTable.getLengths()) out.writeBits(length, LENGTH_BITS);
+
+        for (int i = 0; i < tokens; i++) {
+            if (lengths[i] == 0) {
+                write(out, literalTable, values[i]);
+                continue;
+            }
+            int lengthSymbol = lengthSymbol(lengths[i]);
+            write(out, literalTable, END_OF_BLOCK + 1 + lengthSymbol);
+            out.writeBits(lengths[i] - LENGTH_BASE[lengthSymbol], LENGTH_EXTRA[lengthSymbol]);
+            int distanceSymbol = distanceSymbol(values[i]);
+            write(out, distanceTable, distanceSymbol);
+            out.writeBits(values[i] - DISTANCE_BASE[distanceSymbol], DISTANCE_EXTRA[distanceSymbol]);
+        }
+        write(out, literalTable, END_OF_BLOCK);
+    }
+
+    private static void write(BitOutputStream out, CodeTable table, int symbol) throws IOException {
+        out.writeBits(table.getCode(symbol), table.getLength(symbol));
+    }
+
+    // Reads code lengths written by writeBlock, null if no symbol has a code
+    private static DecodeTable readTable(BitInputStream in, int symbols) throws IOException {
+        int[] lengths = new int[symbols];
+        boolean any = false;
+        for (int i = 0; i < symbols; i++) {
+            lengths[i] = in.readBits(LENGTH_BITS);
+            any |= lengths[i] != 0;
+        }
+        return any ? new DecodeTable(CodeTable.canonical(lengths).toTree()) : null;
+    }
+
+    private static int decodeSymbol(DecodeTable table, BitInputStream in) throws IOException {
+        int symbol = table.decodeOne(in);
+        if (symbol < 0) throw new IOException("Encoding ended early");
+        return symbol;
+    }
+
+    private static int lengthSymbol(int length) {
+        int symbol = LENGTH_BASE.length - 1;
+        while (LENGTH_BASE[symbol] > length) symbol--;
+        return symbol;
+    }
+
+    private static int distanceSymbol(int distance) {
+        int symbol = DISTANCE_BASE.length - 1;
+        while (DISTANCE_BASE[symbol] > distance) symbol--;
+        return symbol;
+    }
+}
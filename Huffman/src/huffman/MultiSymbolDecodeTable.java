@@ -0,0 +1,117 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class is a lookup table which decodes up to three characters per
+ * lookup. When codes are short, as they are for the common letters of
+ * English text, the next tableBits bits often hold two or three whole codes,
+ * and the entry for those bits holds all of their characters along with the
+ * total number of bits they use. Bits which start with a code longer than
+ * the table are decoded one character at a time by a DecodeTable.
+ */
+public class MultiSymbolDecodeTable {
+    public static final int MAX_SYMBOLS = 3;
+
+    private static final int OUTPUT_CHUNK_SIZE = 1 << 13;
+
+    private DecodeTable single;
+    private int tableBits;
+
+    // Each entry is (count << 30) | (total length << 24) | characters, with
+    // the first character in the lowest byte. The length has 6 bits, enough
+    // for any table an array can hold. A count of 0 means the first code is
+    // longer than tableBits.
+    private int[] entries;
+
+    public MultiSymbolDecodeTable(TreeNode root) {
+        this(new DecodeTable(root));
+    }
+
+    /**
+     * @param single The table to build from, also used for long codes
+     */
+    public MultiSymbolDecodeTable(DecodeTable single) {
+        this.single = single;
+        // As wide as the default table even when every code is shorter, so
+        // each lookup covers as many codes as it can
+        tableBits = Math.max(single.getTableBits(), DecodeTable.DEFAULT_TABLE_BITS);
+        int shift = tableBits - single.getTableBits();
+        entries = new int[1 << tableBits];
+        int mask = (1 << tableBits) - 1;
+
+        for (int bits = 0; bits < entries.length; bits++) {
+            int count = 0, used = 0, characters = 0;
+            while (count < MAX_SYMBOLS) {
+                // The bits after the ones already used, padded with zeroes
+                int next = ((bits << used) & mask) >>> shift;
+                int length = single.length(next);
+                if (length == 0 || used + length > tableBits) break;
+                characters |= single.symbol(next) << (8 * count);
+                used += length;
+                count++;
+            }
+            entries[bits] = (count << 30) | (used << 24) | characters;
+        }
+    }
+
+    /**
+     * Decodes characters until limit characters are written or the bits
+     * run out
+     *
+     * @param in    The encoded bits
+     * @param limit The most characters to decode
+     * @param out   The stream to write decoded characters to
+     * @return The number of characters decoded
+     */
+    public long decode(BitInputStream in, long limit, OutputStream out) throws IOException {
+        byte[] chunk = new byte[OUTPUT_CHUNK_SIZE];
+        int mask = (1 << tableBits) - 1;
+        // Every entry uses at most tableBits bits, so a register filled to
+        // more than 56 bits holds enough for this many lookups, at least one
+        // since a table is never wider than that
+        int fullLookups = 57 / tableBits;
+        int size = 0;
+        long written = 0;
+        while (written < limit) {
+            if (size > chunk.length - MAX_SYMBOLS * fullLookups) {
+                out.write(chunk, 0, size);
+                size = 0;
+            }
+
+            // The lookups work on a copy of the register and need no checks,
+            // except near the end of the input or of limit, where there are
+            // none. An entry of 0, a code longer than the table, adds nothing
+            // and ends them.
+            int available = in.fill(tableBits);
+            long register = in.register();
+            int bits = available;
+            int lookups = available > 56 && limit - written >= MAX_SYMBOLS * fullLookups ? fullLookups : 0;
+            int start = size;
+            for (int i = 0; i < lookups; i++) {
+                int entry = entries[(int) (register >>> (bits - tableBits)) & mask];
+                // Always store all three, the extra ones are overwritten later
+                chunk[size] = (byte) entry;
+                chunk[size + 1] = (byte) (entry >>> 8);
+                chunk[size + 2] = (byte) (entry >>> 16);
+                size += entry >>> 30;
+                bits -= (entry >>> 24) & 0x3F;
+                if (entry == 0) break;
+            }
+            in.consume(available - bits);
+            written += size - start;
+            if (size > start) continue;
+
+            // A code longer than the table, or near the end of the input or
+            // of limit, where the later characters of an entry may come from
+            // padding, so go one at a time
+            int c = single.decodeOne(in);
+            if (c < 0) break;
+            chunk[size++] = (byte) c;
+            written++;
+        }
+        out.write(chunk, 0, size);
+        return written;
+    }
+}
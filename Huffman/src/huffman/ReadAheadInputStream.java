@@ -0,0 +1,145 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class reads a file on its own thread ahead of whoever is reading the
+ * stream, so the wait for the disk overlaps with coding. It cycles through
+ * a fixed ring of buffers: the reader thread fills free buffers and queues
+ * them, and the stream hands each one back once it has been read. When
+ * every buffer is full and waiting, the reader thread waits too, so memory
+ * use stays at buffers * bufferSize.
+ */
+public class ReadAheadInputStream extends InputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    // Queued after the last buffer
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private FileChannel channel;
+    private BlockingQueue<ByteBuffer> free;
+    private BlockingQueue<ByteBuffer> filled;
+    private Thread reader;
+
+    // Set by the reader thread before it queues END
+    private volatile IOException error;
+
+    private ByteBuffer current;
+    private boolean ended;
+    private boolean closed;
+
+    public ReadAheadInputStream(String file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param file       The file to read
+     * @param bufferSize The size of each buffer
+     * @param buffers    The number of buffers in the ring, at least 2
+     */
+    public ReadAheadInputStream(String file, int bufferSize, int buffers) throws IOException {
+        if (bufferSize <= 0 || buffers < 2) {
+            throw new IllegalArgumentException("Needs a positive buffer size and at least 2 buffers");
+        }
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        free = new ArrayBlockingQueue<>(buffers);
+        filled = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++) free.add(ByteBuffer.allocate(bufferSize));
+
+        reader = new Thread(this::readAll, "huffman-read-ahead");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAll() {
+        try {
+            boolean eof = false;
+            while (!eof) {
+                ByteBuffer buffer = free.take();
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                if (buffer.hasRemaining()) filled.put(buffer);
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // Closed, nobody is waiting for more
+        }
+        // There is always room, filled holds one more than the ring
+        filled.offer(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) return -1;
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (!ensureData()) return -1;
+        int n = Math.min(len, current.remaining());
+        current.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * @return The bytes left in the current buffer, which can be read
+     *         without waiting
+     */
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        ended = true;
+        reader.interrupt();
+        channel.close();
+    }
+
+    // Moves on to the next filled buffer if the current one is used up,
+    // false at the end of the file
+    private boolean ensureData() throws IOException {
+        if (current != null && current.hasRemaining()) return true;
+        if (closed) throw new IOException("Stream closed");
+        if (ended) return false;
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+        try {
+            ByteBuffer next = filled.take();
+            if (next == END) {
+                ended = true;
+                if (error != null) throw new IOException("Error while reading ahead", error);
+                return false;
+            }
+            current = next;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input");
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class is a table based asymmetric numeral system (tANS) coder, the
+ * method of FSE. A huffman code spends a whole number of bits on every
+ * character, so a character with probability 0.95 still costs a bit where
+ * 0.07 would do. tANS keeps a state between 2^tableLog and 2^(tableLog+1)
+ * instead, and each character moves it to a new state and writes however
+ * many low bits that took, so the cost averages out to close to
+ * -log2(probability).
+ *
+ * The counts are scaled to normalized counts which add up to 2^tableLog,
+ * and each character gets that many slots in the decoding table. A decoder
+ * in state x outputs the character of slot x, reads some bits and moves to
+ * the state they give. The encoder has to run backwards to produce those
+ * bits, so the input is coded in blocks: each block is encoded from its
+ * last character to its first, and then written in the order the decoder
+ * reads it, starting with its final state.
+ */
+public class TansCoder {
+    public static final int ALPHABET_SIZE = 256;
+
+    // 4096 slots, which keeps the tables in the L1 cache
+    public static final int MAX_TABLE_LOG = 12;
+    private static final int MIN_TABLE_LOG = 5;
+
+    // Characters coded backwards at a time
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private int tableLog;
+    private int[] normalized;
+
+    private TansCoder(int tableLog, int[] normalized) {
+        this.tableLog = tableLog;
+        this.normalized = normalized;
+    }
+
+    /**
+     * Picks a table size for the counts and normalizes them to it
+     *
+     * @param counts Array where index i is the count of character i
+     * @return The coder
+     */
+    public static TansCoder build(long[] counts) {
+        long total = 0;
+        int present = 0;
+        for (long count : counts) {
+            total += count;
+            if (count > 0) present++;
+        }
+
+        // No bigger than the input needs, but with a slot for every character
+        int tableLog = MAX_TABLE_LOG;
+        while (tableLog > MIN_TABLE_LOG && (1L << (tableLog - 1)) >= total) tableLog--;
+        while ((1 << tableLog) < present) tableLog++;
+        return new TansCoder(tableLog, normalize(counts, total, tableLog));
+    }
+
+    // Scales counts to add up to 2^tableLog, each character which occurs
+    // getting at least 1. Rounding down leaves slots over and the minimum
+    // of 1 can take too many, so slots are then added or taken back one at
+    // a time wherever that changes the coded size the least.
+    private static int[] normalize(long[] counts, long total, int tableLog) {
+        int[] normalized = new int[ALPHABET_SIZE];
+        if (total == 0) return normalized;
+        int size = 1 << tableLog;
+        int assigned = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            if (counts[c] == 0) continue;
+            normalized[c] = (int) Math.max(1, (double) counts[c] * size / total);
+            assigned += normalized[c];
+        }
+
+        while (assigned != size) {
+            int best = -1;
+            double bestChange = 0;
+            for (int c = 0; c < ALPHABET_SIZE; c++) {
+                int n = normalized[c];
+                if (n == 0 || (assigned > size && n == 1)) continue;
+                // Bits saved by one more slot, or bits lost by one less
+                double change = assigned < size ? counts[c] * Math.log((n + 1.0) / n)
+                        : -counts[c] * Math.log((double) n / (n - 1));
+                if (best < 0 || change > bestChange) {
+                    best = c;
+                    bestChange = change;
+                }
+            }
+            normalized[best] += assigned < size ? 1 : -1;
+            assigned += assigned < size ? 1 : -1;
+        }
+        return normalized;
+    }
+
+    /**
+     * Writes the table size and the normalized counts
+     *
+     * @param out The stream to write to
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeByte(tableLog);
+        int coded = 0;
+        for (int n : normalized) if (n != 0) coded++;
+        out.writeShort(coded);
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            if (normalized[c] == 0) continue;
+            out.writeByte(c);
+            out.writeShort(normalized[c]);
+        }
+    }
+
+    /**
+     * Reads a coder written by write
+     *
+     * @param in The stream to read from
+     * @return The coder
+     */
+    public static TansCoder read(DataInputStream in) throws IOException {
+        int tableLog = in.readUnsignedByte();
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG) {
+            throw new IOException("Invalid table size " + tableLog);
+        }
+        int[] normalized = new int[ALPHABET_SIZE];
+        int coded = in.readUnsignedShort();
+        int sum = 0;
+        for (int i = 0; i < coded; i++) {
+            int c = in.readUnsignedByte();
+            normalized[c] = in.readUnsignedShort();
+            sum += normalized[c];
+        }
+        if (coded > 0 && sum != 1 << tableLog) {
+            throw new IOException("Normalized counts add up to " + sum + ", not " + (1 << tableLog));
+        }
+        return new TansCoder(tableLog, normalized);
+    }
+
+    /**
+     * @return The log2 of the number of slots in the table
+     */
+    public int getTableLog() {
+        return tableLog;
+    }
+
+    /**
+     * @param c A character
+     * @return The number of slots character c has in the table
+     */
+    public int getNormalizedCount(int c) {
+        return normalized[c];
+    }
+
+    // The slots in table order, each holding its character. Stepping by a
+    // little over half the table puts each character's slots all over it,
+    // and the step is odd, so every slot is visited once.
+    private int[] spread() {
+        int size = 1 << tableLog;
+        int step = (size >>> 1) + (size >>> 3) + 3;
+        int[] slots = new int[size];
+        int position = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            for (int i = 0; i < normalized[c]; i++) {
+                slots[position] = c;
+                position = (position + step) & (size - 1);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Encodes every character of in
+     *
+     * @param in  The characters to encode, the same ones that were counted
+     * @param out The stream to write the bits to
+     */
+    public void encode(InputStream in, BitOutputStream out) throws IOException {
+        int size = 1 << tableLog;
+        int[] slots = spread();
+
+        // The states a character moves to, its slots in table order, plus
+        // per character what is needed to pick one of them
+        int[] nextStates = new int[size];
+        int[] offset = new int[ALPHABET_SIZE];
+        int[] maxBits = new int[ALPHABET_SIZE];
+        int[] threshold = new int[ALPHABET_SIZE];
+        int[] seen = new int[ALPHABET_SIZE];
+        int start = 0;
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+            int n = normalized[c];
+            if (n == 0) continue;
+            offset[c] = start - n;
+            seen[c] = start;
+            start += n;
+            maxBits[c] = tableLog - (31 - Integer.numberOfLeadingZeros(n));
+            threshold[c] = n << maxBits[c];
+        }
+        for (int slot = 0; slot < size; slot++) {
+            nextStates[seen[slots[slot]]++] = size + slot;
+        }
+
+        byte[] block = new byte[BLOCK_SIZE];
+        int[] bits = new int[BLOCK_SIZE];
+        byte[] bitCounts = new byte[BLOCK_SIZE];
+        int read;
+        while ((read = in.readNBytes(block, 0, BLOCK_SIZE)) > 0) {
+            int state = size;
+            for (int i = read - 1; i >= 0; i--) {
+                int c = block[i] & 0xFF;
+                if (normalized[c] == 0) throw new IOException("Character " + c + " was not counted");
+                // Shift out enough bits to leave a number in [n, 2n)
+                int count = state >= threshold[c] ? maxBits[c] : maxBits[c] - 1;
+                bits[i] = state & ((1 << count) - 1);
+                bitCounts[i] = (byte) count;
+                state = nextStates[offset[c] + (state >>> count)];
+            }
+            out.writeBits(state - size, tableLog);
+            for (int i = 0; i < read; i++) {
+                out.writeBits(bits[i], bitCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Decodes characters until limit characters are written
+     *
+     * @param in    The encoded bits
+     * @param limit The number of characters to decode
+     * @param out   The stream to write decoded characters to
+     */
+    public void decode(BitInputStream in, long limit, OutputStream out) throws IOException {
+        if (limit == 0) return;
+        int size = 1 << tableLog;
+        int[] slots = spread();
+        if (normalized[slots[0]] == 0) throw new IOException("No characters to decode");
+
+        // For every state, its character, the bits to read and the state
+        // those bits are added to
+        byte[] symbols = new byte[size];
+        byte[] bitCounts = new byte[size];
+        int[] bases = new int[size];
+        int[] next = normalized.clone();
+        for (int slot = 0; slot < size; slot++) {
+            int c = slots[slot];
+            int n = next[c]++;
+            int count = tableLog - (31 - Integer.numberOfLeadingZeros(n));
+            symbols[slot] = (byte) c;
+            bitCounts[slot] = (byte) count;
+            bases[slot] = (n << count) - size;
+        }
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int position = 0;
+        for (long done = 0; done < limit; done += BLOCK_SIZE) {
+            long blockSize = Math.min(BLOCK_SIZE, limit - done);
+            if (!in.hasBits(tableLog)) throw new IOException("Not enough bits left");
+            int state = in.readBits(tableLog);
+            for (int i = 0; i < blockSize; i++) {
+                chunk[position++] = symbols[state];
+                state = bases[state] + in.readBits(bitCounts[state]);
+                if (position == chunk.length) {
+                    out.write(chunk, 0, position);
+                    position = 0;
+                }
+            }
+        }
+        out.write(chunk, 0, position);
+    }
+}
@@ -0,0 +1,183 @@
+package huffman;
+
+/**
+ * This class builds a huffman tree from long character counts, with the
+ * nodes in flat parallel arrays instead of CharFreq and TreeNode objects.
+ * Counts are compared exactly, so ties are broken the same way on every
+ * platform, where sums of double probabilities could round either way.
+ *
+ * The merge is the same two-queue merge as before: leaves sorted by count
+ * and then by character are one queue, and the merged nodes, which come
+ * out in non-decreasing order, are the other. Since merged nodes are
+ * appended to the arrays in the order they are made, the second queue is
+ * just a range of indices.
+ */
+public class TreeBuilder {
+    private int leaves;
+    private long[] weight;
+    private int[] left;
+    private int[] right;
+
+    // The character of each leaf
+    private int[] symbol;
+
+    private TreeBuilder(long[] counts) {
+        // Characters with a count, plus a second one with count 0 if there
+        // is only one, so that it still gets a 1 bit code
+        int present = 0;
+        for (long count : counts) if (count > 0) present++;
+        int[] symbols = new int[Math.max(present, present == 1 ? 2 : 0)];
+        int j = 0;
+        for (int c = 0; c < counts.length; c++) {
+            if (counts[c] > 0) symbols[j++] = c;
+        }
+        if (present == 1) symbols[1] = (symbols[0] + 1) % counts.length;
+
+        // Insertion sort by count and then character, on at most 256 items
+        for (int i = 1; i < symbols.length; i++) {
+            int s = symbols[i];
+            int k = i - 1;
+            while (k >= 0 && (counts[symbols[k]] > counts[s] || counts[symbols[k]] == counts[s] && symbols[k] > s)) {
+                symbols[k + 1] = symbols[k];
+                k--;
+            }
+            symbols[k + 1] = s;
+        }
+
+        leaves = symbols.length;
+        int nodes = Math.max(0, 2 * leaves - 1);
+        weight = new long[nodes];
+        left = new int[nodes];
+        right = new int[nodes];
+        symbol = symbols;
+        for (int i = 0; i < leaves; i++) {
+            weight[i] = counts[symbols[i]];
+            left[i] = -1;
+            right[i] = -1;
+        }
+
+        // Leaves not merged yet are [source, leaves), merged nodes not
+        // merged again yet are [target, next)
+        int source = 0, target = leaves, next = leaves;
+        while (next < nodes) {
+            int a = (source < leaves && (target == next || weight[source] <= weight[target])) ? source++ : target++;
+            int b = (source < leaves && (target == next || weight[source] <= weight[target])) ? source++ : target++;
+            weight[next] = weight[a] + weight[b];
+            left[next] = a;
+            right[next] = b;
+            next++;
+        }
+    }
+
+    /**
+     * @param counts Array where index i is the count of character i
+     * @return Array where index i is the code length of character i, or 0
+     */
+    public static int[] codeLengths(long[] counts) {
+        TreeBuilder tree = new TreeBuilder(counts);
+        int[] lengths = new int[counts.length];
+        int nodes = tree.weight.length;
+        if (nodes == 0) return lengths;
+
+        // Children always come before their parent, so going down from the
+        // root every node's depth is known before its children's
+        int[] depth = new int[nodes];
+        for (int node = nodes - 1; node >= tree.leaves; node--) {
+            depth[tree.left[node]] = depth[node] + 1;
+            depth[tree.right[node]] = depth[node] + 1;
+        }
+        for (int i = 0; i < tree.leaves; i++) lengths[tree.symbol[i]] = depth[i];
+        return lengths;
+    }
+
+    /**
+     * Finds huffman code lengths in linear time for weights which are
+     * already sorted, using the in-place method of Moffat and Katajainen.
+     * This is for alphabets far bigger than 256, like the words of
+     * WordHuffman, where sorting is the only step that is not linear.
+     *
+     * @param sortedWeights The weights, in non-decreasing order
+     * @return Array where index i is the code length for sortedWeights[i]
+     */
+    public static int[] sortedCodeLengths(long[] sortedWeights) {
+        int n = sortedWeights.length;
+        int[] lengths = new int[n];
+        if (n == 0) return lengths;
+        if (n == 1) {
+            lengths[0] = 1;
+            return lengths;
+        }
+        long[] a = sortedWeights.clone();
+
+        // Merge in place: a[next] becomes the weight of merged node next,
+        // and a merged node which has been merged again holds its parent
+        a[0] += a[1];
+        int root = 0, leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+
+        // Turn parent links into depths, from the root down
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) a[next] = a[(int) a[next]] + 1;
+
+        // Every depth with fewer merged nodes than places has leaves there,
+        // and the heaviest leaves get the shallowest places
+        int available = 1, used = 0, depth = 0;
+        root = n - 2;
+        int next = n - 1;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                lengths[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+        return lengths;
+    }
+
+    /**
+     * Builds the tree as CharFreq and TreeNode objects, for code which walks
+     * the tree or shows it, like Driver. Each leaf's probability is its
+     * count over the total and each other node's is the sum of its
+     * children's, as makeTree has always made them.
+     *
+     * @param counts Array where index i is the count of character i
+     * @return The root of the tree, or null if no character has a count
+     */
+    public static TreeNode buildTree(long[] counts) {
+        TreeBuilder tree = new TreeBuilder(counts);
+        int nodes = tree.weight.length;
+        if (nodes == 0) return null;
+
+        double total = 0;
+        for (long count : counts) total += count;
+        TreeNode[] built = new TreeNode[nodes];
+        for (int i = 0; i < tree.leaves; i++) {
+            built[i] = new TreeNode(new CharFreq((char) tree.symbol[i], tree.weight[i] / total), null, null);
+        }
+        for (int node = tree.leaves; node < nodes; node++) {
+            TreeNode l = built[tree.left[node]], r = built[tree.right[node]];
+            double probOcc = l.getData().getProbOcc() + r.getData().getProbOcc();
+            built[node] = new TreeNode(new CharFreq(null, probOcc), l, r);
+        }
+        return built[nodes - 1];
+    }
+}
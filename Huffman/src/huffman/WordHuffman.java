@@ -0,0 +1,344 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class huffman codes whole words instead of single bytes. The input
+ * is split into tokens, which are runs of word bytes (letters, digits and
+ * any byte of a UTF-8 character) or runs of other bytes, at most
+ * MAX_TOKEN_LENGTH bytes each. Every distinct token is a symbol, so the
+ * alphabet can have millions of symbols.
+ *
+ * Symbols are kept in a HashMap from the token, as an ISO-8859-1 string so
+ * every byte is one char, to its index. The 256 single bytes are always
+ * symbols, so once MAX_SYMBOLS is reached, new tokens are coded byte by
+ * byte. Code lengths come from sorting the counts and
+ * TreeBuilder.sortedCodeLengths, and the codes are canonical, so only the
+ * symbols and the number of codes of each length are stored.
+ *
+ * The file starts with the magic number "HUFW", the number of tokens, the
+ * longest code length and the number of codes of each length, then every
+ * coded symbol in code order as its byte length and bytes, and then the
+ * codes. Numbers in the header are varints (7 bits per byte, low first).
+ *
+ * Compiling and executing:
+ * 1. javac -d bin src/huffman/*.java
+ * 2. java -cp bin huffman.WordHuffman compress|decompress inputFile outputFile
+ */
+public class WordHuffman {
+    public static final int MAX_TOKEN_LENGTH = 64;
+    public static final int MAX_SYMBOLS = 1 << 21;
+
+    private static final int MAGIC = 0x48554657;
+    private static final int MAX_CODE_LENGTH = 57;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Dictionary of symbols, with a count for each
+    private HashMap<String, Integer> indices = new HashMap<>();
+    private ArrayList<byte[]> symbols = new ArrayList<>();
+    private long[] counts = new long[1 << 12];
+
+    // Filled in by buildCodes, by symbol index
+    private long[] codes;
+    private int[] lengths;
+
+    private WordHuffman() {
+        for (int b = 0; b < 256; b++) add(new byte[] { (byte) b });
+    }
+
+    private int add(byte[] token) {
+        int index = symbols.size();
+        symbols.add(token);
+        indices.put(new String(token, StandardCharsets.ISO_8859_1), index);
+        if (index == counts.length) counts = Arrays.copyOf(counts, counts.length * 2);
+        return index;
+    }
+
+    /**
+     * Compresses inputFile into encodedFile. It is read twice, once to
+     * count tokens and once to code them.
+     *
+     * @param inputFile   The file to compress
+     * @param encodedFile The file to write the encoding to
+     */
+    public static void compress(String inputFile, String encodedFile) throws IOException {
+        WordHuffman model = new WordHuffman();
+        try (InputStream in = new FileInputStream(inputFile)) {
+            model.tokenize(in, model::count);
+        }
+        model.buildCodes();
+
+        try (InputStream in = new FileInputStream(inputFile);
+                DataOutputStream header = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(encodedFile)))) {
+            long tokens = model.writeHeader(header);
+            header.flush();
+            BitOutputStream out = new BitOutputStream(header);
+            long[] written = new long[1];
+            model.tokenize(in, (buffer, length) -> written[0] += model.write(out, buffer, length));
+            out.flush();
+            if (written[0] != tokens) throw new IOException("File changed while it was being compressed");
+        }
+    }
+
+    /**
+     * Decodes a file written by compress
+     *
+     * @param encodedFile The file written by compress
+     * @param decodedFile The file to write the original bytes to
+     */
+    public static void decompress(String encodedFile, String decodedFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(encodedFile)));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(decodedFile), CHUNK_SIZE)) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a word compressed file");
+            long tokens = readVarint(in);
+            int maxLength = (int) readVarint(in);
+            if (maxLength > MAX_CODE_LENGTH) throw new IOException("Invalid code length");
+
+            // Canonical decoding: the codes of each length are consecutive
+            // numbers, starting at firstCode[length], for the symbols
+            // starting at firstSymbol[length] in code order
+            long[] lengthCounts = new long[maxLength + 1];
+            long total = 0;
+            for (int length = 1; length <= maxLength; length++) {
+                lengthCounts[length] = readVarint(in);
+                total += lengthCounts[length];
+            }
+            if (total > MAX_SYMBOLS) throw new IOException("Too many symbols");
+            long[] firstCode = new long[maxLength + 2];
+            int[] firstSymbol = new int[maxLength + 2];
+            long code = 0;
+            int symbol = 0;
+            for (int length = 1; length <= maxLength; length++) {
+                code <<= 1;
+                firstCode[length] = code;
+                firstSymbol[length] = symbol;
+                code += lengthCounts[length];
+                symbol += lengthCounts[length];
+            }
+            byte[][] symbols = new byte[(int) total][];
+            for (int i = 0; i < symbols.length; i++) {
+                int length = (int) readVarint(in);
+                if (length > MAX_TOKEN_LENGTH) throw new IOException("Invalid symbol");
+                symbols[i] = new byte[length];
+                in.readFully(symbols[i]);
+            }
+
+            BitInputStream bits = new BitInputStream(in);
+            for (long t = 0; t < tokens; t++) {
+                code = 0;
+                int length = 0;
+                while (true) {
+                    int bit = bits.readBit();
+                    if (bit < 0) throw new IOException("Encoding ended early");
+                    code = (code << 1) | bit;
+                    length++;
+                    if (length > maxLength) throw new IOException("Invalid code");
+                    long offset = code - firstCode[length];
+                    if (offset >= 0 && offset < lengthCounts[length]) {
+                        out.write(symbols[firstSymbol[length] + (int) offset]);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private interface TokenSink {
+        void token(byte[] buffer, int length) throws IOException;
+    }
+
+    // Splits the input into tokens and passes each to sink. The buffer is
+    // reused, so sink has to copy anything it keeps.
+    private void tokenize(InputStream in, TokenSink sink) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] token = new byte[MAX_TOKEN_LENGTH];
+        int length = 0;
+        boolean word = false;
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = chunk[i];
+                boolean isWord = isWordByte(b);
+                if (length > 0 && (isWord != word || length == MAX_TOKEN_LENGTH)) {
+                    sink.token(token, length);
+                    length = 0;
+                }
+                word = isWord;
+                token[length++] = b;
+            }
+        }
+        if (length > 0) sink.token(token, length);
+    }
+
+    private static boolean isWordByte(byte b) {
+        return b < 0 || (b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    private void count(byte[] buffer, int length) {
+        Integer index = indices.get(new String(buffer, 0, length, StandardCharsets.ISO_8859_1));
+        if (index == null) {
+            if (symbols.size() >= MAX_SYMBOLS) {
+                for (int i = 0; i < length; i++) counts[buffer[i] & 0xFF]++;
+                return;
+            }
+            index = add(Arrays.copyOf(buffer, length));
+        }
+        counts[index]++;
+    }
+
+    // Writes the code of a token, or of each of its bytes if it did not
+    // make it into the dictionary. Returns the number of codes written.
+    private int write(BitOutputStream out, byte[] buffer, int length) throws IOException {
+        Integer index = indices.get(new String(buffer, 0, length, StandardCharsets.ISO_8859_1));
+        if (index != null) {
+            out.writeBits(codes[index], lengths[index]);
+            return 1;
+        }
+        for (int i = 0; i < length; i++) {
+            int b = buffer[i] & 0xFF;
+            out.writeBits(codes[b], lengths[b]);
+        }
+        return length;
+    }
+
+    // Sorts the symbols with a count by count, finds their code lengths in
+    // linear time and assigns canonical codes
+    private void buildCodes() {
+        int n = symbols.size();
+        int[] order = codeOrderByCount(n);
+        long[] weights = new long[order.length];
+        for (int i = 0; i < order.length; i++) weights[i] = counts[order[i]];
+        int[] sortedLengths = TreeBuilder.sortedCodeLengths(weights);
+        if (sortedLengths.length > 0 && sortedLengths[0] > MAX_CODE_LENGTH) {
+            sortedLengths = PackageMerge.codeLengths(weights, MAX_CODE_LENGTH);
+        }
+
+        lengths = new int[n];
+        for (int i = 0; i < order.length; i++) lengths[order[i]] = sortedLengths[i];
+        codes = new long[n];
+        long[] nextCode = firstCodes(lengths);
+        for (int index : codeOrder()) codes[index] = nextCode[lengths[index]]++;
+    }
+
+    // The symbols with a count, sorted by count and then index
+    private int[] codeOrderByCount(int n) {
+        int present = 0;
+        long maxCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (counts[i] > 0) present++;
+            maxCount = Math.max(maxCount, counts[i]);
+        }
+        int[] order = new int[present];
+        if (maxCount < (1L << (63 - 21))) {
+            // Sort count and index packed into one long, with no boxing
+            long[] keys = new long[present];
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                if (counts[i] > 0) keys[j++] = counts[i] << 21 | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < present; i++) order[i] = (int) (keys[i] & ((1 << 21) - 1));
+        } else {
+            Integer[] boxed = new Integer[present];
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                if (counts[i] > 0) boxed[j++] = i;
+            }
+            Arrays.sort(boxed, (x, y) -> counts[x] != counts[y] ? Long.compare(counts[x], counts[y]) : x - y);
+            for (int i = 0; i < present; i++) order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    // The coded symbols ordered by code length and then index, which is
+    // the order their canonical codes count up in
+    private int[] codeOrder() {
+        int maxLength = 0;
+        for (int length : lengths) maxLength = Math.max(maxLength, length);
+        int[] start = new int[maxLength + 2];
+        for (int length : lengths) if (length > 0) start[length + 1]++;
+        for (int length = 1; length <= maxLength; length++) start[length + 1] += start[length];
+        int[] order = new int[start[maxLength + 1]];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0) order[start[lengths[i]]++] = i;
+        }
+        return order;
+    }
+
+    private static long[] firstCodes(int[] lengths) {
+        int maxLength = 0;
+        for (int length : lengths) maxLength = Math.max(maxLength, length);
+        long[] lengthCounts = new long[maxLength + 1];
+        for (int length : lengths) if (length > 0) lengthCounts[length]++;
+        long[] first = new long[maxLength + 1];
+        long code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            first[length] = code;
+        }
+        return first;
+    }
+
+    // Returns the number of tokens the codes will hold
+    private long writeHeader(DataOutputStream out) throws IOException {
+        int[] order = codeOrder();
+        int maxLength = 0;
+        long tokens = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            maxLength = Math.max(maxLength, lengths[i]);
+            tokens += counts[i];
+        }
+        long[] lengthCounts = new long[maxLength + 1];
+        for (int length : lengths) if (length > 0) lengthCounts[length]++;
+
+        out.writeInt(MAGIC);
+        writeVarint(out, tokens);
+        writeVarint(out, maxLength);
+        for (int length = 1; length <= maxLength; length++) writeVarint(out, lengthCounts[length]);
+        for (int index : order) {
+            byte[] symbol = symbols.get(index);
+            writeVarint(out, symbol.length);
+            out.write(symbol);
+        }
+        return tokens;
+    }
+
+    private static void writeVarint(DataOutputStream out, long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.writeByte((int) (n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return n;
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("compress") || args[0].equals("decompress"))) {
+            System.err.println("Usage: java huffman.WordHuffman compress|decompress inputFile outputFile");
+            return;
+        }
+        if (args[0].equals("compress")) compress(args[1], args[2]);
+        else decompress(args[1], args[2]);
+    }
+}
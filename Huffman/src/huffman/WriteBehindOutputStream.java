@@ -0,0 +1,153 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class writes a file on its own thread behind whoever is writing the
+ * stream, so the wait for the disk overlaps with coding. Like
+ * ReadAheadInputStream it cycles through a fixed ring of buffers: full
+ * buffers are queued for the writer thread, which hands them back once
+ * they are on disk. When every buffer is waiting to be written, write
+ * waits for one to come back, so memory use stays at buffers * bufferSize.
+ *
+ * A write error on the writer thread is thrown by a later write or by close.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    // Queued after the last buffer
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private FileChannel channel;
+    private BlockingQueue<ByteBuffer> free;
+    private BlockingQueue<ByteBuffer> filled;
+    private Thread writer;
+
+    // Set by the writer thread, which keeps handing back buffers after it
+    private volatile IOException error;
+
+    private ByteBuffer current;
+    private boolean closed;
+
+    public WriteBehindOutputStream(String file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param file       The file to create or overwrite
+     * @param bufferSize The size of each buffer
+     * @param buffers    The number of buffers in the ring, at least 2
+     */
+    public WriteBehindOutputStream(String file, int bufferSize, int buffers) throws IOException {
+        if (bufferSize <= 0 || buffers < 2) {
+            throw new IllegalArgumentException("Needs a positive buffer size and at least 2 buffers");
+        }
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        free = new ArrayBlockingQueue<>(buffers);
+        filled = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers - 1; i++) free.add(ByteBuffer.allocate(bufferSize));
+        current = ByteBuffer.allocate(bufferSize);
+
+        writer = new Thread(this::writeAll, "huffman-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeAll() {
+        try {
+            while (true) {
+                ByteBuffer buffer = filled.take();
+                if (buffer == END) return;
+                if (error == null) {
+                    try {
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                buffer.clear();
+                free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            // Only interrupted if close could not finish normally
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        current.put((byte) b);
+        if (!current.hasRemaining()) submit();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!current.hasRemaining()) submit();
+        }
+    }
+
+    /**
+     * Queues what has been written so far. It is written to the file soon
+     * after, but flush does not wait for that.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current.position() > 0) submit();
+    }
+
+    /**
+     * Waits for everything to be written, then closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            if (error == null && current.position() > 0) submit();
+            filled.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for output to be written");
+        } finally {
+            closed = true;
+            channel.close();
+        }
+        if (error != null) throw new IOException("Error while writing behind", error);
+    }
+
+    // Queues the current buffer and waits for a free one
+    private void submit() throws IOException {
+        current.flip();
+        try {
+            filled.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        }
+        if (error != null) throw new IOException("Error while writing behind", error);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+}